@@ -30,6 +30,9 @@ import android.util.Xml;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -68,6 +71,12 @@ public class AllAppsList {
     
     private IconCache mIconCache;
     
+    /** The apps in data by component, and by package. */
+    private final HashMap<ComponentName, ApplicationInfo> mComponentIndex =
+            new HashMap<ComponentName, ApplicationInfo>(DEFAULT_APPLICATIONS_NUMBER);
+    private final HashMap<String, ArrayList<ApplicationInfo>> mPackageIndex =
+            new HashMap<String, ArrayList<ApplicationInfo>>();
+    
     public static ArrayList<TopPackage> mTopPackages;
     
     public static class TopPackage {
@@ -100,15 +109,18 @@ public class AllAppsList {
      * If the app is already in the list, doesn't add it.
      */
     public void add(ApplicationInfo info) {
-        if (findActivity(data, info.componentName)) {
+        if (mComponentIndex.containsKey(info.componentName)) {
             return;
         }
         data.add(info);
         added.add(info);
+        index(info);
     }
     
     public void clear() {
         data.clear();
+        mComponentIndex.clear();
+        mPackageIndex.clear();
         // TODO: do we clear these too?
         added.clear();
         removed.clear();
@@ -127,9 +139,15 @@ public class AllAppsList {
      * Add the icons for the supplied apk called packageName.
      */
     public void addPackage(Context context, String packageName) {
+        addPackage(context, packageName, findActivitiesForPackage(context, packageName));
+    }
+
+    /**
+     * Add the icons for the supplied apk called packageName, whose launcher activities
+     * are matches.
+     */
+    public void addPackage(Context context, String packageName, List<ResolveInfo> matches) {
     	final PackageManager packageManager = context.getPackageManager();
-    	
-        final List<ResolveInfo> matches = findActivitiesForPackage(context, packageName);
 
         if (matches.size() > 0) {
             for (ResolveInfo info : matches) {
@@ -142,38 +160,42 @@ public class AllAppsList {
      * Remove the apps for the given apk identified by packageName.
      */
     public void removePackage(String packageName) {
-        final List<ApplicationInfo> data = this.data;
-        for (int i = data.size() - 1; i >= 0; i--) {
-            ApplicationInfo info = data.get(i);
-            final ComponentName component = info.intent.getComponent();
-            if (packageName.equals(component.getPackageName())) {
-                removed.add(info);
-                data.remove(i);
-            }
+        final ArrayList<ApplicationInfo> infos = mPackageIndex.get(packageName);
+        if (infos != null) {
+            removeAll(new ArrayList<ApplicationInfo>(infos));
         }
-        // This is more aggressive than it needs to be.
-        mIconCache.flush();
     }
 
     /**
      * Add and remove icons for this package which has been updated.
      */
     public void updatePackage(Context context, String packageName) {
+        updatePackage(context, packageName, findActivitiesForPackage(context, packageName));
+    }
+
+    /**
+     * Add and remove icons for this package which has been updated, whose launcher
+     * activities are now matches.
+     */
+    public void updatePackage(Context context, String packageName, List<ResolveInfo> matches) {
     	final PackageManager packageManager = context.getPackageManager();
-        final List<ResolveInfo> matches = findActivitiesForPackage(context, packageName);
         if (matches.size() > 0) {
             // Find disabled/removed activities and remove them from data and add them
             // to the removed list.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final ApplicationInfo applicationInfo = data.get(i);
-                final ComponentName component = applicationInfo.intent.getComponent();
-                if (packageName.equals(component.getPackageName())) {
-                    if (!findActivity(matches, component)) {
-                        removed.add(applicationInfo);
-                        mIconCache.remove(component);
-                        data.remove(i);
+            final ArrayList<ApplicationInfo> infos = mPackageIndex.get(packageName);
+            if (infos != null) {
+                final HashSet<String> matchNames = new HashSet<String>(matches.size());
+                for (ResolveInfo info : matches) {
+                    matchNames.add(info.activityInfo.name);
+                }
+                final ArrayList<ApplicationInfo> gone = new ArrayList<ApplicationInfo>();
+                for (ApplicationInfo applicationInfo : infos) {
+                    if (!matchNames.contains(
+                            applicationInfo.componentName.getClassName())) {
+                        gone.add(applicationInfo);
                     }
                 }
+                removeAll(gone);
             }
 
             // Find enabled activities and add them to the adapter
@@ -202,37 +224,101 @@ public class AllAppsList {
     }
 
     private void removeDisabledStkActivity(String packageName) {
-        for (int i=data.size()-1; i>=0; i--) {
-            final ApplicationInfo applicationInfo = data.get(i);
-            final ComponentName component = applicationInfo.intent.getComponent();
-            if (packageName.equals(component.getPackageName())) {
-                removed.add(applicationInfo);
-                mIconCache.remove(component);
-                data.remove(i);
+        removePackage(packageName);
+    }
+
+    private void index(ApplicationInfo info) {
+        mComponentIndex.put(info.componentName, info);
+        final String packageName = info.componentName.getPackageName();
+        ArrayList<ApplicationInfo> infos = mPackageIndex.get(packageName);
+        if (infos == null) {
+            infos = new ArrayList<ApplicationInfo>(1);
+            mPackageIndex.put(packageName, infos);
+        }
+        infos.add(info);
+    }
+
+    /**
+     * Remove the given apps, which must be in data, and add them to the removed list.
+     * data is compacted in one pass, however many there are.
+     */
+    private void removeAll(List<ApplicationInfo> infos) {
+        final int count = infos.size();
+        if (count == 0) {
+            return;
+        }
+        final IdentityHashMap<ApplicationInfo, Boolean> gone =
+                new IdentityHashMap<ApplicationInfo, Boolean>(count);
+        for (int i = 0; i < count; i++) {
+            final ApplicationInfo info = infos.get(i);
+            gone.put(info, Boolean.TRUE);
+            removed.add(info);
+            mIconCache.remove(info.componentName);
+
+            mComponentIndex.remove(info.componentName);
+            final String packageName = info.componentName.getPackageName();
+            final ArrayList<ApplicationInfo> siblings = mPackageIndex.get(packageName);
+            if (siblings != null) {
+                siblings.remove(info);
+                if (siblings.isEmpty()) {
+                    mPackageIndex.remove(packageName);
+                }
+            }
+        }
+
+        final ArrayList<ApplicationInfo> data = this.data;
+        final int N = data.size();
+        int kept = 0;
+        for (int i = 0; i < N; i++) {
+            final ApplicationInfo info = data.get(i);
+            if (!gone.containsKey(info)) {
+                data.set(kept++, info);
             }
         }
+        for (int i = N - 1; i >= kept; i--) {
+            data.remove(i);
+        }
     }
 
     /**
      * Query the package manager for MAIN/LAUNCHER activities in the supplied package.
      */
-    private static List<ResolveInfo> findActivitiesForPackage(Context context, String packageName) {
+    public static List<ResolveInfo> findActivitiesForPackage(Context context, String packageName) {
         final PackageManager packageManager = context.getPackageManager();
 
         final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
         mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+        mainIntent.setPackage(packageName);
 
-        final List<ResolveInfo> apps = packageManager.queryIntentActivities(mainIntent, 0);
-        final List<ResolveInfo> matches = new ArrayList<ResolveInfo>();
+        final List<ResolveInfo> matches = packageManager.queryIntentActivities(mainIntent, 0);
+        return matches != null ? matches : new ArrayList<ResolveInfo>();
+    }
 
+    /**
+     * Query the package manager for MAIN/LAUNCHER activities in the supplied packages,
+     * with one query for all of them. Every package gets a list, empty if it has none.
+     */
+    public static HashMap<String, List<ResolveInfo>> findActivitiesForPackages(Context context,
+            String[] packageNames) {
+        final PackageManager packageManager = context.getPackageManager();
+
+        final HashMap<String, List<ResolveInfo>> matches =
+                new HashMap<String, List<ResolveInfo>>(packageNames.length);
+        for (String packageName : packageNames) {
+            matches.put(packageName, new ArrayList<ResolveInfo>());
+        }
+
+        final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+
+        final List<ResolveInfo> apps = packageManager.queryIntentActivities(mainIntent, 0);
         if (apps != null) {
-            // Find all activities that match the packageName
             int count = apps.size();
             for (int i = 0; i < count; i++) {
                 final ResolveInfo info = apps.get(i);
-                final ActivityInfo activityInfo = info.activityInfo;
-                if (packageName.equals(activityInfo.packageName)) {
-                    matches.add(info);
+                final List<ResolveInfo> list = matches.get(info.activityInfo.packageName);
+                if (list != null) {
+                    list.add(info);
                 }
             }
         }
@@ -240,46 +326,11 @@ public class AllAppsList {
         return matches;
     }
 
-    /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
-     */
-    private static boolean findActivity(List<ResolveInfo> apps, ComponentName component) {
-        final String className = component.getClassName();
-        for (ResolveInfo info : apps) {
-            final ActivityInfo activityInfo = info.activityInfo;
-            if (activityInfo.name.equals(className)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
-     */
-    private static boolean findActivity(ArrayList<ApplicationInfo> apps, ComponentName component) {
-        final int N = apps.size();
-        for (int i=0; i<N; i++) {
-            final ApplicationInfo info = apps.get(i);
-            if (info.componentName.equals(component)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Find an ApplicationInfo object for the given packageName and className.
      */
     private ApplicationInfo findApplicationInfoLocked(String packageName, String className) {
-        for (ApplicationInfo info: data) {
-            final ComponentName component = info.intent.getComponent();
-            if (packageName.equals(component.getPackageName())
-                    && className.equals(component.getClassName())) {
-                return info;
-            }
-        }
-        return null;
+        return mComponentIndex.get(new ComponentName(packageName, className));
     }
     
     
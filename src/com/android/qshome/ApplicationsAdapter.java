@@ -70,12 +70,17 @@ import com.android.qshome.util.QsLog;
  */
 public class ApplicationsAdapter extends ArrayAdapter<ApplicationInfo> {
     private final LayoutInflater mInflater;
+    private Launcher mLauncher;
 
     public ApplicationsAdapter(Context context, ArrayList<ApplicationInfo> apps) {
         super(context, 0, apps);
         mInflater = LayoutInflater.from(context);
     }
 
+    
+    public void setLauncher(Launcher launcher) {
+        mLauncher = launcher;
+    }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
@@ -98,6 +103,11 @@ public class ApplicationsAdapter extends ArrayAdapter<ApplicationInfo> {
 //        	QsLog.LogE("ApplicationsAdapter::getView()==info.iconBitmap is null==");
         textView.setCompoundDrawablesWithIntrinsicBounds(null, new BitmapDrawable(info.iconBitmap), null, null);
         textView.setText(info.title);
+        // The tag lets Launcher find the cell when the app's badge changes.
+        textView.setTag(info);
+        if (mLauncher != null) {
+            mLauncher.applyBadge(textView, info);
+        }
         
 //        textView.setCompoundDrawablesWithIntrinsicBounds(null, info.icon, null, null);
 //        String title = info.title.toString();
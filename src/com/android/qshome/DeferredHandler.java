@@ -22,6 +22,7 @@ import android.os.Message;
 import android.os.MessageQueue;
 import android.util.Log;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 
 /**
@@ -29,43 +30,117 @@ import java.util.LinkedList;
  * be actually enqued on the handler until after the last one has run, to keep from
  * starving the thread.
  *
- * This class is fifo.
+ * Each time the handler gets a turn, it runs as many items as fit in FRAME_BUDGET_NANOS
+ * and then gives input and drawing a turn before going on.
+ *
+ * Items posted with {@link #post(Runnable, int)} go in a lane, and the lanes run in
+ * order of priority: something for the current screen posted after a widget for
+ * another screen still runs first.  {@link #post(Runnable)} and {@link #postIdle} are
+ * fifo with respect to everything: they run after all that was posted before them, in
+ * any lane, and before anything posted after them.  They are barriers, so lanes only
+ * reorder what was posted between two of them; an item for the current screen posted
+ * after a barrier waits for everything before it.
+ *
+ * {@link #LANE_HOUSEKEEPING} items are the exception: they are not held by barriers
+ * and hold nothing up.  They run when nothing else is queued but idle items, and only
+ * once the looper is idle.
  */
 public class DeferredHandler {
-    private LinkedList<Runnable> mQueue = new LinkedList();
-    private MessageQueue mMessageQueue = Looper.myQueue();
-    private Impl mHandler = new Impl();
+    private static final String TAG = "Launcher.DeferredHandler";
 
-    private class Impl extends Handler implements MessageQueue.IdleHandler {
-        public void handleMessage(Message msg) {
-            Runnable r;
-            synchronized (mQueue) {
-                if (mQueue.size() == 0) {
-                    return;
-                }
-                r = mQueue.removeFirst();
+    /** Binding what the user is looking at: the current screen and the hotseat. */
+    public static final int LANE_CURRENT_SCREEN = 0;
+    /** Binding the other workspace screens. */
+    public static final int LANE_OTHER_SCREENS = 1;
+    /** Binding all apps. */
+    public static final int LANE_ALL_APPS = 2;
+    /** Anything that can wait for everything else, and for the looper to go idle. */
+    public static final int LANE_HOUSEKEEPING = 3;
+    // The lanes kept in segments; housekeeping has a queue of its own.
+    private static final int LANE_COUNT = 3;
+
+    // How long one turn may keep running items.  About half a frame, so there's time
+    // left to draw what they did.
+    private static final long FRAME_BUDGET_NANOS = 8 * 1000000L;
+
+    private static class Task {
+        final Runnable runnable;
+        final boolean idle;
+        final long postedAt = System.nanoTime();
+
+        Task(Runnable r, boolean idle) {
+            runnable = r;
+            this.idle = idle;
+        }
+    }
+
+    /**
+     * The laned items posted between two fifo items, and the fifo item that follows them,
+     * which runs once they're all done.
+     */
+    private static class Segment {
+        final LinkedList<Task>[] lanes = newLanes();
+        Task barrier;
+
+        @SuppressWarnings("unchecked")
+        private static LinkedList<Task>[] newLanes() {
+            final LinkedList<Task>[] lanes = new LinkedList[LANE_COUNT];
+            for (int i=0; i<LANE_COUNT; i++) {
+                lanes[i] = new LinkedList<Task>();
             }
-            r.run();
-            synchronized (mQueue) {
-                scheduleNextLocked();
+            return lanes;
+        }
+
+        Task peek() {
+            for (int i=0; i<LANE_COUNT; i++) {
+                if (lanes[i].size() > 0) {
+                    return lanes[i].getFirst();
+                }
             }
+            return barrier;
         }
 
-        public boolean queueIdle() {
-            handleMessage(null);
-            return false;
+        void remove(Task task) {
+            for (int i=0; i<LANE_COUNT; i++) {
+                if (lanes[i].size() > 0 && lanes[i].getFirst() == task) {
+                    lanes[i].removeFirst();
+                    return;
+                }
+            }
+            if (barrier == task) {
+                barrier = null;
+            }
         }
     }
 
-    private class IdleRunnable implements Runnable {
-        Runnable mRunnable;
+    private final LinkedList<Segment> mQueue = new LinkedList<Segment>();
+    private final LinkedList<Task> mHousekeeping = new LinkedList<Task>();
+    private MessageQueue mMessageQueue = Looper.myQueue();
+    private Impl mHandler = new Impl();
+    // A message is on its way, don't send another.
+    private boolean mScheduled;
+    // The idle handler is added, don't add it again.
+    private boolean mIdleScheduled;
+
+    // Metrics, all guarded by mQueue.
+    private int mDepth;
+    private int mMaxDepth;
+    private long mRunCount;
+    private long mTurns;
+    private long mOverBudget;
+    private long mLatencyNanos;
+    private long mMaxLatencyNanos;
+    private long mRunNanos;
+    private long mMaxRunNanos;
 
-        IdleRunnable(Runnable r) {
-            mRunnable = r;
+    private class Impl extends Handler implements MessageQueue.IdleHandler {
+        public void handleMessage(Message msg) {
+            drain(false);
         }
 
-        public void run() {
-            mRunnable.run();
+        public boolean queueIdle() {
+            drain(true);
+            return false;
         }
     }
 
@@ -75,39 +150,209 @@ public class DeferredHandler {
     /** Schedule runnable to run after everything that's on the queue right now. */
     public void post(Runnable runnable) {
         synchronized (mQueue) {
-            mQueue.add(runnable);
-            if (mQueue.size() == 1) {
-                scheduleNextLocked();
+            openSegmentLocked().barrier = new Task(runnable, false);
+            addedLocked();
+        }
+    }
+
+    /**
+     * Schedule runnable to run after everything in its lane, and in the lanes before it,
+     * that's on the queue right now.
+     */
+    public void post(Runnable runnable, int lane) {
+        synchronized (mQueue) {
+            if (lane == LANE_HOUSEKEEPING) {
+                mHousekeeping.add(new Task(runnable, true));
+            } else {
+                openSegmentLocked().lanes[lane].add(new Task(runnable, false));
             }
+            addedLocked();
         }
     }
 
     /** Schedule runnable to run when the queue goes idle. */
     public void postIdle(final Runnable runnable) {
-        post(new IdleRunnable(runnable));
+        synchronized (mQueue) {
+            openSegmentLocked().barrier = new Task(runnable, true);
+            addedLocked();
+        }
     }
 
     public void cancelRunnable(Runnable runnable) {
         synchronized (mQueue) {
-            while (mQueue.remove(runnable)) { }
+            for (Iterator<Task> tasks = mHousekeeping.iterator(); tasks.hasNext(); ) {
+                if (tasks.next().runnable == runnable) {
+                    tasks.remove();
+                    mDepth--;
+                }
+            }
+            for (Iterator<Segment> it = mQueue.iterator(); it.hasNext(); ) {
+                final Segment segment = it.next();
+                for (int i=0; i<LANE_COUNT; i++) {
+                    for (Iterator<Task> tasks = segment.lanes[i].iterator(); tasks.hasNext(); ) {
+                        if (tasks.next().runnable == runnable) {
+                            tasks.remove();
+                            mDepth--;
+                        }
+                    }
+                }
+                if (segment.barrier != null && segment.barrier.runnable == runnable) {
+                    segment.barrier = null;
+                    mDepth--;
+                }
+            }
+            // What was posted after a cancelled barrier no longer has to wait for it.
+            Segment open = null;
+            for (Iterator<Segment> it = mQueue.iterator(); it.hasNext(); ) {
+                final Segment segment = it.next();
+                if (open != null) {
+                    for (int i=0; i<LANE_COUNT; i++) {
+                        open.lanes[i].addAll(segment.lanes[i]);
+                    }
+                    open.barrier = segment.barrier;
+                    it.remove();
+                } else {
+                    open = segment;
+                }
+                if (open.barrier != null) {
+                    open = null;
+                }
+            }
         }
     }
 
     public void cancel() {
         synchronized (mQueue) {
             mQueue.clear();
+            mHousekeeping.clear();
+            mDepth = 0;
         }
     }
 
     public void scheduleNextLocked() {
-        if (mQueue.size() > 0) {
-            Runnable peek = mQueue.getFirst();
-            if (peek instanceof IdleRunnable) {
+        final Task next = peekLocked();
+        if (next == null) {
+            return;
+        }
+        if (next.idle) {
+            if (!mIdleScheduled) {
+                mIdleScheduled = true;
                 mMessageQueue.addIdleHandler(mHandler);
+            }
+        } else if (!mScheduled) {
+            // Even if the idle handler is waiting; this doesn't have to.
+            mScheduled = true;
+            mHandler.sendEmptyMessage(1);
+        }
+    }
+
+    /**
+     * Run what fits in this turn.  Idle items only run at the start of a turn the idle
+     * handler gave us.
+     */
+    private void drain(boolean idle) {
+        final long start = System.nanoTime();
+        int ran = 0;
+        while (true) {
+            final Task task;
+            synchronized (mQueue) {
+                task = peekLocked();
+                if (task == null || (task.idle && !(idle && ran == 0))) {
+                    break;
+                }
+                removeLocked(task);
+            }
+
+            final long runStart = System.nanoTime();
+            task.runnable.run();
+            final long end = System.nanoTime();
+            ran++;
+
+            synchronized (mQueue) {
+                final long latency = runStart - task.postedAt;
+                final long run = end - runStart;
+                mRunCount++;
+                mLatencyNanos += latency;
+                mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latency);
+                mRunNanos += run;
+                mMaxRunNanos = Math.max(mMaxRunNanos, run);
+                if (run > FRAME_BUDGET_NANOS) {
+                    mOverBudget++;
+                }
+            }
+            if (end - start >= FRAME_BUDGET_NANOS) {
+                break;
+            }
+        }
+        synchronized (mQueue) {
+            mTurns++;
+            if (idle) {
+                mIdleScheduled = false;
             } else {
-                mHandler.sendEmptyMessage(1);
+                mScheduled = false;
             }
+            // Goes to the back of the looper's queue, behind any input or frame.
+            scheduleNextLocked();
         }
     }
-}
 
+    private Segment openSegmentLocked() {
+        Segment tail = mQueue.size() > 0 ? mQueue.getLast() : null;
+        if (tail == null || tail.barrier != null) {
+            tail = new Segment();
+            mQueue.add(tail);
+        }
+        return tail;
+    }
+
+    private void addedLocked() {
+        mDepth++;
+        mMaxDepth = Math.max(mMaxDepth, mDepth);
+        scheduleNextLocked();
+    }
+
+    private Task peekLocked() {
+        while (mQueue.size() > 0) {
+            final Segment head = mQueue.getFirst();
+            final Task task = head.peek();
+            if (task != null) {
+                return task;
+            }
+            if (head == mQueue.getLast()) {
+                // Still open, and nothing in it yet.
+                break;
+            }
+            mQueue.removeFirst();
+        }
+        return mHousekeeping.size() > 0 ? mHousekeeping.getFirst() : null;
+    }
+
+    private void removeLocked(Task task) {
+        if (mHousekeeping.size() > 0 && mHousekeeping.getFirst() == task) {
+            mHousekeeping.removeFirst();
+            mDepth--;
+            return;
+        }
+        final Segment head = mQueue.getFirst();
+        final boolean wasBarrier = task == head.barrier;
+        head.remove(task);
+        if (wasBarrier || (head.peek() == null && head != mQueue.getLast())) {
+            mQueue.removeFirst();
+        }
+        mDepth--;
+    }
+
+    public void dumpState(String tag) {
+        synchronized (mQueue) {
+            Log.d(tag, "mHandler depth=" + mDepth + " maxDepth=" + mMaxDepth
+                    + " ran=" + mRunCount + " in " + mTurns + " turns"
+                    + " overBudget=" + mOverBudget);
+            if (mRunCount > 0) {
+                Log.d(tag, "mHandler latency avg=" + (mLatencyNanos / mRunCount / 1000) + "us"
+                        + " max=" + (mMaxLatencyNanos / 1000) + "us"
+                        + " run avg=" + (mRunNanos / mRunCount / 1000) + "us"
+                        + " max=" + (mMaxRunNanos / 1000) + "us");
+            }
+        }
+    }
+}
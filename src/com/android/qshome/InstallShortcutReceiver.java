@@ -94,6 +94,7 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
 
         boolean[][] occupied = new boolean[xCount][yCount];
 
+        LauncherModel.flushPendingWrites();
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
             new String[] { LauncherSettings.Favorites.CELLX, LauncherSettings.Favorites.CELLY,
@@ -113,7 +113,9 @@ import com.android.qshome.ctrl.FastBitmapDrawable;
 import com.android.qshome.ctrl.Folder;
 import com.android.qshome.ctrl.FolderIcon;
 import com.android.qshome.ctrl.HandleView;
+import com.android.qshome.ctrl.IconBadge;
 import com.android.qshome.ctrl.LiveFolderIcon;
+import com.android.qshome.ctrl.PageSnapshot;
 import com.android.qshome.ctrl.UserFolder;
 import com.android.qshome.ctrl.Workspace;
 import com.android.qshome.model.ApplicationInfo;
@@ -123,6 +125,7 @@ import com.android.qshome.model.ItemInfo;
 import com.android.qshome.model.LauncherAppWidgetInfo;
 import com.android.qshome.model.LiveFolderInfo;
 import com.android.qshome.model.ShortcutInfo;
+import com.android.qshome.model.UnreadMessages;
 import com.android.qshome.model.UserFolderInfo;
 import com.android.qshome.style.BaseStyleObject;
 import com.android.qshome.style.BaseStyleObjectApps;
@@ -137,21 +140,14 @@ import com.android.qshome.util.QsLog;
 import com.android.qshome.util.Utilities;
 import com.android.qshome.util.ThemeStyle;
 
-
-//jz for sms
-import android.provider.Telephony.Mms;
-import static com.google.android.mms.pdu.PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND;
-import static com.google.android.mms.pdu.PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF;
-import android.provider.Telephony.Sms;
-import android.graphics.drawable.BitmapDrawable;
-
 import com.android.qshome.ctrl.BubbleTextViewIcs;
 
 /**
  * Default launcher application.
  */
 public final class Launcher extends Activity
-        implements View.OnClickListener, OnLongClickListener/*, LauncherModel.Callbacks*/, AllAppsView.Watcher {
+        implements View.OnClickListener, OnLongClickListener/*, LauncherModel.Callbacks*/, AllAppsView.Watcher,
+        UnreadMessages.Callbacks, IconCache.IconListener {
 	public static final String TAG = "Launcher";
     public static final boolean LOGD = false;
 
@@ -258,6 +254,8 @@ public final class Launcher extends Activity
 
     private LauncherModel mModel;
     private IconCache mIconCache;
+    private UnreadMessages mUnreadMessages;
+    private final HashMap<ComponentName, Integer> mBadgeCounts = new HashMap<ComponentName, Integer>();
 
     private ArrayList<ItemInfo> mDesktopItems = new ArrayList<ItemInfo>();
     private static HashMap<Long, FolderInfo> mFolders = new HashMap<Long, FolderInfo>();
@@ -351,6 +349,7 @@ public final class Launcher extends Activity
         LauncherApplication app = ((LauncherApplication)getApplication());
         mModel = app.getModel();//setLauncher(this);
         mIconCache = app.getIconCache();
+        mIconCache.setIconListener(this);
         mDragController = new DragController(this);
         mInflater = getLayoutInflater();
         
@@ -419,7 +418,10 @@ public final class Launcher extends Activity
         //filter.addAction("com.qishang.sms.UNREAD_COUNT_CHANGED");
         registerReceiver(mCloseSystemDialogsReceiver, filter);
         
-        //InitShowUnReadedSmsCount();
+        if (Utilities.QS_ENABLE_UNREAD_BADGES) {
+            mUnreadMessages = new UnreadMessages(this);
+            mUnreadMessages.start(this);
+        }
     }
     
     private void init(ThemeStyle nDefStyle){
@@ -507,9 +509,8 @@ public final class Launcher extends Activity
     				 //mIconCache.flush();
     				 
     		    	 mWorkspaceLoading = true;
-    		    	 if(bIsFirst)
-    		    		 mModel.setAllAppsDirty();
-    		         mModel.startLoader(this, true);
+    		    	 // Nothing in the model changed, only the views and the icon style.
+    		         mModel.startRebind(this);
     		         mRestoring = false;
     		         mOnResumeNeedsLoad = false;
     			}
@@ -799,7 +800,7 @@ public final class Launcher extends Activity
             localeConfiguration.mnc = mnc;
 
             writeConfiguration(this, localeConfiguration);
-            mIconCache.flush();
+            mIconCache.flushAll();
         }
         
         if(mThemeWidgetObject != null)
@@ -978,6 +979,11 @@ public final class Launcher extends Activity
         if(mThemeWidgetObject != null)
         	mThemeWidgetObject.onPause();
 
+        // Don't leave workspace changes sitting in memory while we are in the background.
+        LauncherModel.flushPendingWrites();
+        // Nor the full screen bitmaps the pages are drawn from while swiping.
+        PageSnapshot.releaseAll();
+
 //        dismissPreview(mPreviousView);
 //        dismissPreview(mNextView);
         mDragController.cancelDrag();
@@ -1174,6 +1180,7 @@ public final class Launcher extends Activity
     	
         v.setTag(info);
         v.setOnClickListener(this);
+        applyBadge(v, info);
 
         return v;
     }
@@ -1399,6 +1406,17 @@ public final class Launcher extends Activity
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Page snapshots are rendered again on the next swipe.
+        PageSnapshot.releaseAll();
+        // Screens the user isn't near can make their icons again when they get there.
+        if (level >= TRIM_MEMORY_RUNNING_LOW && mWorkspace != null) {
+            mWorkspace.releaseFarScreens();
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -1418,7 +1436,11 @@ public final class Launcher extends Activity
         if(mThemeWidgetObject != null){
         	mThemeWidgetObject.onDestroy();
         }
-        //DeInitShowUnReadedSmsCount();
+        if (mUnreadMessages != null) {
+            mUnreadMessages.stop();
+            mUnreadMessages = null;
+        }
+        mIconCache.setIconListener(null);
         getContentResolver().unregisterContentObserver(mWidgetObserver);
         unregisterReceiver(mCloseSystemDialogsReceiver);
         
@@ -2595,9 +2617,9 @@ public final class Launcher extends Activity
         	
         	if(intent.getAction().equals("com.qishang.sms.UNREAD_COUNT_CHANGED"))
 			{
-				//QsLog.LogD("=QsHome====com.qishang.sms.UNREAD_COUNT_CHANGED=======");
-				//updateSmsIcon();
-				updateSmsIconByMessage();
+				if (mUnreadMessages != null) {
+					mUnreadMessages.requery();
+				}
 				return;
 			}
         	
@@ -2684,7 +2706,6 @@ public final class Launcher extends Activity
 
         mWorkspaceLoading = false;
         
-        //updateSmsIconByMessage();
         
         dismissHomeLoadingDialog();
         
@@ -2938,309 +2959,82 @@ public final class Launcher extends Activity
     }
     
     
-	///////////////////////////////////////////////////////////////////////
-	static final String MMSPACKAGENAME = "com.android.mms";
-    static final String MMSCALSSNAME = "com.android.mms.ui.ConversationList";
-    private static final int MESSAGE_UPDATE_NEWMSG_ICON = 100;
-    private static final int MESSAGE_UPDATE_CURRENT_PAGE_ICON = 101;
-    private static int mPrevSmsUnReadCount = 0;
-    private static int mPrevIconCount = 0;
-    private static Bitmap mSmsOrignalIcon = null;
-    private static Bitmap mSmsIconNew = null;
-	private final ContentObserver mSmsObserver = new QsMessageChangeObserver();
-	private final ContentObserver mMmsObserver = new QsMessageChangeObserver();
-	
-	private void InitShowUnReadedSmsCount()
-	{
-		initSmsOraginalIcon();
-
-		updateSmsIconByMessage();
-        
-		getContentResolver().registerContentObserver(Sms.CONTENT_URI, true, mSmsObserver);
-		getContentResolver().registerContentObserver(Mms.CONTENT_URI, true, mMmsObserver);
-	}
-	
-	private void DeInitShowUnReadedSmsCount()
-	{	
-		getContentResolver().unregisterContentObserver(mSmsObserver);
-		getContentResolver().unregisterContentObserver(mMmsObserver);
-	}
-	
-	private void initSmsOraginalIcon()
-	{
-		final PackageManager manager = getPackageManager();
-		///final ResolveInfo resolveInfo = manager.resolveActivity(intent, 0);
-		//final ActivityInfo activityInfo = resolveInfo.activityInfo;
-//		try {
-//			final ActivityInfo activityInfo = manager.getActivityInfo(new ComponentName(MMSPACKAGENAME, MMSCALSSNAME), 0);
-//			mSmsOrignalIcon = Utilities.createIconBitmap(activityInfo.loadIcon(manager), this);
-//		} catch (PackageManager.NameNotFoundException e) {
-//            Log.d("QiShang", "getSmsOraginalIcon() fail:" +e);
-//        }
-	}
-	
-    private class QsMessageChangeObserver extends ContentObserver {
-        public QsMessageChangeObserver() {
-            super(new Handler());
-        }
-
-        @Override
-        public void onChange(boolean selfChange) {
-             // update the sms icon ....
-            //updateSmsIcon();
-        	updateSmsIconByMessage();
-        }
-    }
-    
-    private class LauncherHander extends Handler {
-		@Override
-		public void handleMessage(Message msg) {
-			switch (msg.what) {
-			case MESSAGE_UPDATE_NEWMSG_ICON: 
-				//QsLog.LogD("LauncherHander::MESSAGE_UPDATE_NEWMSG_ICON===");
-				updateSmsIcon(false, false);
-				break;
-			case MESSAGE_UPDATE_CURRENT_PAGE_ICON:
-				updateSmsIcon(true, true);
-				break;
-			}
-		}
+    public void bindUnreadMessages(int count) {
+        setBadgeCount(UnreadMessages.MESSAGING_COMPONENT, count);
     }
-    
-    private Handler mLauncherHander = new LauncherHander();
 
     /**
-     * create mms icon with unread msg num on top left corner.add by zf -
-     * QiShang
+     * Implementation of the method from IconCache.IconListener.  The shortcuts
+     * showed the default icon while these were loaded.
      */
-    
-    public static Bitmap createMmsIconWithIcon(int num, Bitmap icon, Context context) {
-    	
-        Bitmap numIcon = createNumIcon(num, context);
-
-        int w = icon.getWidth();
-        int h = icon.getHeight();
-
-        //Log.v("QiShang", "unread sms num is: " + mPrevSmsUnReadCount+"==w:"+w+"==h:"+h);
-
-        Bitmap Ret_Icon = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(Ret_Icon);
-
-        canvas.drawBitmap(icon, 0, 0, null);
-
-        // canvas.drawText(unReadNum, w - txtW - 3, txtH + 3, paint);
-        if (numIcon != null) {
-            canvas.drawBitmap(numIcon, w - numIcon.getWidth(), h - numIcon.getHeight(), null);
-        }
-        else
-        {
-        	Log.v("QiShang", "createMmsIconWithIcon()==numIcon is null==");
+    public void onIconsLoaded(ArrayList<ComponentName> components) {
+        if (mWorkspace != null) {
+            mWorkspace.updateShortcutIcons(components);
         }
-
-        canvas.save(Canvas.ALL_SAVE_FLAG);
-        canvas.restore();
-
-        return Ret_Icon;
     }
 
-    public static int[] numDrawable = {
-            R.drawable.num_0, R.drawable.num_1, R.drawable.num_2, R.drawable.num_3,
-            R.drawable.num_4, R.drawable.num_5, R.drawable.num_6, R.drawable.num_7,
-            R.drawable.num_8, R.drawable.num_9
-    };
-
-    public static Bitmap createNumIcon(int num, Context context) {
-        // ignore num >= 100
-        if (num <= 0 || num >= 100)
-            return null;
-        Bitmap bk = ((BitmapDrawable) context.getResources().getDrawable(R.drawable.round))
-                .getBitmap();
-        int w = bk.getWidth();
-        int h = bk.getHeight();
-        Bitmap numIcon = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(numIcon);
-        canvas.drawBitmap(bk, 0, 0, null);
-
-        int tenPos = num / 10;
-        int unitPos = num % 10;
-        //Log.v("QiShang", "icon num is : " + tenPos + "," + unitPos+"==w:"+w+"=h:"+h);
-        Bitmap tenBit = ((BitmapDrawable) context.getResources().getDrawable(numDrawable[tenPos]))
-                .getBitmap();
-        Bitmap unitBit = ((BitmapDrawable) context.getResources().getDrawable(numDrawable[unitPos]))
-                .getBitmap();
-        if (tenPos <= 0) {
-            canvas.drawBitmap(unitBit, (w - unitBit.getWidth()) / 2, (h - unitBit.getHeight()) / 2,
-                    null);
+    /**
+     * Sets the badge shown on the shortcuts and all apps cells of component; 0
+     * removes it. Only the views showing component are touched, and only their
+     * badges are redrawn. Views created later get it from applyBadge().
+     */
+    public void setBadgeCount(ComponentName component, int count) {
+        if (count == 0) {
+            if (mBadgeCounts.remove(component) == null) {
+                return;
+            }
         } else {
-            canvas.drawBitmap(tenBit, (w - tenBit.getWidth() - unitBit.getWidth()) / 2,
-                    (h - tenBit.getHeight()) / 2, null);
-            canvas.drawBitmap(unitBit,
-                    (w - tenBit.getWidth() - unitBit.getWidth()) / 2 + tenBit.getWidth(),
-                    (h - unitBit.getHeight()) / 2, null);
-        }
-
-        canvas.save(Canvas.ALL_SAVE_FLAG);
-        canvas.restore();
-        return numIcon;
-    }
-    
-    // jz 
-    private static final String NEW_INCOMING_SM_CONSTRAINT =
-        "(" + Sms.TYPE + " = " + Sms.MESSAGE_TYPE_INBOX
-        + " AND " + Sms.SEEN + " = 0)";
-    
-    private static final String NEW_INCOMING_MM_CONSTRAINT =
-        "(" + Mms.MESSAGE_BOX + "=" + Mms.MESSAGE_BOX_INBOX
-        + " AND " + Mms.SEEN + "=0"
-        + " AND (" + Mms.MESSAGE_TYPE + "=" + MESSAGE_TYPE_NOTIFICATION_IND
-        + " OR " + Mms.MESSAGE_TYPE + "=" + MESSAGE_TYPE_RETRIEVE_CONF + "))";
-    
-    private static final String[] SMS_STATUS_PROJECTION = new String[] {
-        Sms.THREAD_ID };
-    
-    private static final String[] MMS_STATUS_PROJECTION = new String[] {
-        Mms.THREAD_ID };
-
-    public static int getUnReadMsgCount(Context context) {
-    	
-        int unReadMsgCount = 0;//Uri.parse("content://sms/inbox")
-        Cursor cursor = context.getContentResolver().query(Sms.CONTENT_URI, 
-        		SMS_STATUS_PROJECTION,
-        		NEW_INCOMING_SM_CONSTRAINT, null, null);
-        
-        if (cursor != null) {
-        	unReadMsgCount = cursor.getCount();
-            cursor.close();
+            final Integer old = mBadgeCounts.put(component, count);
+            if (old != null && old == count) {
+                return;
+            }
         }
-        
-        cursor = context.getContentResolver().query(Mms.CONTENT_URI,
-                MMS_STATUS_PROJECTION, NEW_INCOMING_MM_CONSTRAINT,
-                null, null);
-        
-        if (cursor != null) {
-        	unReadMsgCount += cursor.getCount();
-            cursor.close();
+        if (mDragLayer != null) {
+            updateBadges(mDragLayer, component, count);
         }
-        
-        return unReadMsgCount;
     }
-    
-    private void updateSmsIcon(CellLayout currentScreen, Drawable icon)
-    {
-    	View child = null;
-    	int count = currentScreen.getChildCount();
-    	for (int i = 0; i < count; i++) {
-            child = currentScreen.getChildAt(i);
-            Object tag = child.getTag();
-            if (tag instanceof ShortcutInfo) {
-            	ShortcutInfo info = (ShortcutInfo) tag;
-                if (MMSPACKAGENAME.equals(info.intent.getComponent().getPackageName())
-                        && MMSCALSSNAME.equals(info.intent.getComponent().getClassName())) {
-                	
-                    ((TextView) child).setCompoundDrawablesWithIntrinsicBounds(null,
-                    		icon, null, null);
-                }
+
+    private void updateBadges(View v, ComponentName component, int count) {
+        if (v instanceof IconBadge.Host) {
+            final Object tag = v.getTag();
+            if (tag instanceof ItemInfo && component.equals(getBadgeComponent((ItemInfo) tag))) {
+                ((IconBadge.Host) v).setBadgeCount(count);
+            }
+        } else if (v instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) v;
+            for (int i = group.getChildCount() - 1; i >= 0; i--) {
+                updateBadges(group.getChildAt(i), component, count);
             }
         }
     }
-    
-    public static Bitmap getUnReadSmsCountIcon(String packetname, String classname)
-    {
-    	if (MMSPACKAGENAME.equals(packetname) && MMSCALSSNAME.equals(classname)) {
-    		return mSmsIconNew;
-    	}
-    	
-    	return null;
-    }
-    
-    public static Bitmap getUnReadSmsCountIcon(ComponentName componentName)
-    {   	
-    	return getUnReadSmsCountIcon(componentName.getPackageName(), componentName.getClassName());
-    }
-    
-    public static boolean checkIsSmsComponentName(ComponentName componentName){
-    	if (MMSPACKAGENAME.equals(componentName.getPackageName()) 
-    			&& MMSCALSSNAME.equals(componentName.getClassName())) {
-    		return true;
-    	}
-    	return false;
-    }
 
-    public void updateSmsIconByMessage(){
-    	//Log.v("QiShang", "updateSmsIconByMessage()===");
-    	mLauncherHander.removeMessages(MESSAGE_UPDATE_CURRENT_PAGE_ICON);
-    	mLauncherHander.removeMessages(MESSAGE_UPDATE_NEWMSG_ICON);
-        mLauncherHander.sendEmptyMessageDelayed(MESSAGE_UPDATE_NEWMSG_ICON, 300);
+    private static ComponentName getBadgeComponent(ItemInfo info) {
+        if (info instanceof ApplicationInfo) {
+            return ((ApplicationInfo) info).componentName;
+        } else if (info instanceof ShortcutInfo) {
+            final Intent intent = ((ShortcutInfo) info).intent;
+            return intent != null ? intent.getComponent() : null;
+        }
+        return null;
     }
-    
-    public void updateCurrentSmsIconByMessage(){
-    	//Log.v("QiShang", "updateCurrentSmsIconByMessage()===");
-    	mLauncherHander.removeMessages(MESSAGE_UPDATE_CURRENT_PAGE_ICON);
-        mLauncherHander.sendEmptyMessageDelayed(MESSAGE_UPDATE_CURRENT_PAGE_ICON, 300);
-    }    
-    private void updateSmsIcon(boolean bOnlyIcon, boolean curPage) {
-    	if(mSmsOrignalIcon == null)
-    	{
-    		Log.v("QiShang", "updateSmsIcon()=mSmsOrignalIcon is null==");
-    		//getSmsOraginalIcon();
-    		return;
-    	}
-    	
-    	if(!bOnlyIcon || mSmsIconNew == null){
-    		
-	    	int nCount = getUnReadMsgCount(this);
-	    	//Log.v("QiShang", "updateSmsIcon()=new:" + nCount + "==old:" + mPrevSmsUnReadCount+"==mWorkspaceLoading:"+mWorkspaceLoading);	        
-	        if(mPrevIconCount != nCount){
-	        	mPrevIconCount = nCount;
-		        if(nCount == 0)
-		        	mSmsIconNew = mSmsOrignalIcon;
-		        else
-		        	mSmsIconNew = createMmsIconWithIcon(nCount, mSmsOrignalIcon, this);
-	        }
-    	}
-    	
-        if(mSmsIconNew == null)
-        {
-        	Log.v("QiShang", "updateSmsIcon()=mSmsIconNew is null==");
-        	return;
+
+    /**
+     * Gives a newly created or rebound view for info the badge it should show.
+     */
+    public void applyBadge(View v, ItemInfo info) {
+        if (!(v instanceof IconBadge.Host)) {
+            return;
         }
-        
-        //if(mModel.isDesktopLoaded())
-        if(!mWorkspaceLoading && (mPrevSmsUnReadCount != mPrevIconCount) || curPage)
-        {
-        	mPrevSmsUnReadCount = mPrevIconCount;
-        	
-        	mWorkspace.clearChildrenCache();
-        	int screenCount = mWorkspace.getChildCount();
-            int ncurScreen = mWorkspace.getCurrentScreen();
-            
-            Drawable icon = new FastBitmapDrawable(mSmsIconNew);
-            
-            updateSmsIcon((CellLayout) mWorkspace.getChildAt(ncurScreen), icon);
-            if(!curPage){
-	            for(int screen = 0; screen < ncurScreen; screen++)
-	            {
-	            	updateSmsIcon((CellLayout) mWorkspace.getChildAt(screen), icon);
-	            }
-	            
-	            for(int screen = ncurScreen+1; screen < screenCount; screen++)
-	            {
-	            	updateSmsIcon((CellLayout) mWorkspace.getChildAt(screen), icon);
-	            }
+        int count = 0;
+        if (!mBadgeCounts.isEmpty()) {
+            final ComponentName component = getBadgeComponent(info);
+            if (component != null) {
+                final Integer c = mBadgeCounts.get(component);
+                count = c != null ? c : 0;
             }
         }
-        else
-    	{
-    		Log.d("QiShang", "updateSmsIcon()==isDesktopLoaded is false==");
-    	}
-        
-//        mModel.changeSmsShortcutIcon(new ComponentName(
-//    			MMSPACKAGENAME,
-//    			MMSCALSSNAME), mSmsIconNew);
-        //mWorkspace.invalidate();
-        //Log.v("QiShang", "updateSmsIcon(end)====="+ mPrevSmsUnReadCount);
+        ((IconBadge.Host) v).setBadgeCount(count);
     }
-    ////////////////////////////////////////////////////////////////////////////////////
     
     
     private String JzGetItemInfoString(ItemInfo info, boolean bIsShowSpan) {
@@ -25,6 +25,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Configuration;
 import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Handler;
 import dalvik.system.VMRuntime;
 
@@ -112,8 +113,14 @@ public class LauncherApplication extends Application {
     private final ContentObserver mFavoritesObserver = new ContentObserver(new Handler()) {
         @Override
         public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
             if(mIsModelInit){
-                mModel.startLoader(LauncherApplication.this, false);
+                // Only what changed is reread and rebound.
+                mModel.onFavoritesChanged(uri);
                }
         }
     };
@@ -21,11 +21,13 @@ import android.appwidget.AppWidgetProviderInfo;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.content.Intent.ShortcutIconResource;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
@@ -58,7 +60,17 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -108,6 +120,10 @@ public class LauncherModel extends BroadcastReceiver {
 	}
 	private static final Handler sWorker = new Handler(sWorkerThread.getLooper());
 
+	// Resolves labels and renders icons for the all apps batches, one thread per core.
+	private static final int ICON_RENDER_THREADS = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService sIconRenderPool;
+
 	public static Object mObject = new Object();
 
     // We start off with everything not loaded.  After that, we assume that
@@ -128,6 +144,40 @@ public class LauncherModel extends BroadcastReceiver {
     public final ArrayList<ItemInfo> mQsExtItems = new ArrayList<ItemInfo>();
     public final ArrayList<ApplicationInfo> mQsAppsItems = new ArrayList<ApplicationInfo>();
 
+    // Every favorites row that the workspace knows about, by _id.  Filled in by the loader
+    // and kept up to date by the database helpers below, so WorkspaceDeltaTask only has to
+    // bind what the workspace hasn't seen yet.
+    private static final HashMap<Long, ItemInfo> sItemsIdMap = new HashMap<Long, ItemInfo>();
+    // Rows that were read but not bound (bad intents, overlapping cells).  Guarded by sItemsIdMap.
+    private static final HashSet<Long> sIgnoredItemIds = new HashSet<Long>();
+    // rowMarker() of every row as we last read it, so a rescan can tell which rows were
+    // updated without reading the icons.  Guarded by sItemsIdMap.
+    private static final HashMap<Long, Long> sItemMarkers = new HashMap<Long, Long>();
+
+    // Favorites rows that changed since the last WorkspaceDeltaTask ran.
+    private final HashSet<Long> mChangedItemIds = new HashSet<Long>();
+    private boolean mRescanItemIds;
+    private boolean mWorkspaceDeltaPosted;
+
+    // ms to collect favorites writes for, before they are written in one batch.
+    private static final int WRITE_BEHIND_DELAY = 100;
+    // Updates and deletes that haven't been written yet, by _id.  null means delete.
+    private static final LinkedHashMap<Long, ContentValues> sPendingWrites =
+            new LinkedHashMap<Long, ContentValues>();
+    private static ContentResolver sPendingWritesResolver;
+    private static boolean sFlushPosted;
+    private static final Object sFlushLock = new Object();
+
+    // Icons rendered for the other recently used styles per idle step.
+    private static final int STYLE_VARIANTS_BATCH = 8;
+
+    // ms to collect package broadcasts for, before they are applied as one change.
+    private static final int PACKAGE_EVENTS_DELAY = 200;
+    // The op still to apply to each package, in the order they came in.
+    private final LinkedHashMap<String, Integer> mPendingPackageOps =
+            new LinkedHashMap<String, Integer>();
+    private boolean mPackageEventsPosted;
+
     private Bitmap mDefaultIcon;
 
     public interface Callbacks {
@@ -135,7 +185,10 @@ public class LauncherModel extends BroadcastReceiver {
         public int getCurrentWorkspaceScreen();
         public void startBinding();
         public void bindItems(ArrayList<ItemInfo> shortcuts, int start, int end);
+        public void bindItemsRemoved(ArrayList<ItemInfo> items);
+        public void bindFoldersChanged(ArrayList<FolderInfo> folders);
         public void bindFolders(HashMap<Long,FolderInfo> folders);
+        public void finishBindingCurrentScreen();
         public void finishBindingItems();
         public void bindAppWidget(LauncherAppWidgetInfo info);
         public void bindAllApplications(ArrayList<ApplicationInfo> apps);
@@ -246,20 +299,14 @@ public class LauncherModel extends BroadcastReceiver {
         item.cellX = cellX;
         item.cellY = cellY;
 
-        final Uri uri = false ? LauncherSettings.Favorites.getAppsContentUri(item.id, false) : LauncherSettings.Favorites.getContentUri(item.id, false);
         final ContentValues values = new ContentValues();
-        final ContentResolver cr = context.getContentResolver();
 
         values.put(LauncherSettings.Favorites.CONTAINER, item.container);
         values.put(LauncherSettings.Favorites.CELLX, item.cellX);
         values.put(LauncherSettings.Favorites.CELLY, item.cellY);
         values.put(LauncherSettings.Favorites.SCREEN, item.screen);
 
-        sWorker.post(new Runnable() {
-                public void run() {
-                    cr.update(uri, values, null, null);
-                }
-            });
+        queueWrite(context, item.id, values);
     }
 
     /**
@@ -267,6 +314,7 @@ public class LauncherModel extends BroadcastReceiver {
      * we identify a shortcut by its title and intent.
      */
     public static boolean shortcutExists(Context context, String title, Intent intent) {
+        flushPendingWrites();
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
             new String[] { "title", "intent" }, "title=? and intent=?",
@@ -284,6 +332,7 @@ public class LauncherModel extends BroadcastReceiver {
      * Find a folder in the db, creating the FolderInfo if necessary, and adding it to folderList.
      */
     public FolderInfo getFolderById(Context context, HashMap<Long,FolderInfo> folderList, long id, boolean bIsAppMode) {
+        flushPendingWrites();
         final ContentResolver cr = context.getContentResolver();
         Cursor c = cr.query(false ? LauncherSettings.Favorites.APPS_CONTENT_URI : LauncherSettings.Favorites.CONTENT_URI, null,
                 "_id=? and (itemType=? or itemType=?)",
@@ -357,10 +406,12 @@ public class LauncherModel extends BroadcastReceiver {
 
         item.onAddToDatabase(values);
         
+        flushPendingWrites();
         Uri result = cr.insert(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION, values);
 
         if (result != null) {
             item.id = Integer.parseInt(result.getPathSegments().get(1));
+            registerItem(item);
         }
     }
     
@@ -375,6 +426,8 @@ public class LauncherModel extends BroadcastReceiver {
         final ContentResolver cr = context.getContentResolver();
 
         item.onAddToDatabase(values);
+        // Written straight to the provider, so it has to come after what is queued.
+        flushPendingWrites();
         Uri result = null;
         if(false){
         	result = cr.insert(notify ? LauncherSettings.Favorites.APPS_CONTENT_URI :
@@ -387,6 +440,25 @@ public class LauncherModel extends BroadcastReceiver {
 
         if (result != null) {
             item.id = Integer.parseInt(result.getPathSegments().get(1));
+            // Without a notification the caller has put it on screen itself.  With one,
+            // WorkspaceDeltaTask will find it and bind it.
+            if (!notify) {
+                registerItem(item);
+            }
+        }
+    }
+
+    private static void registerItem(ItemInfo item) {
+        synchronized (sItemsIdMap) {
+            sItemsIdMap.put(item.id, item);
+        }
+    }
+
+    private static void unregisterItem(long id) {
+        synchronized (sItemsIdMap) {
+            sItemsIdMap.remove(id);
+            sIgnoredItemIds.remove(id);
+            sItemMarkers.remove(id);
         }
     }
 
@@ -404,11 +476,10 @@ public class LauncherModel extends BroadcastReceiver {
     
     public static void updateItemInDatabase(Context context, ItemInfo item, boolean bIsAppMode) {
         final ContentValues values = new ContentValues();
-        final ContentResolver cr = context.getContentResolver();
 
         item.onAddToDatabase(values);
 
-        cr.update(/*false ? LauncherSettings.Favorites.getAppsContentUri(item.id, false) : */LauncherSettings.Favorites.getContentUri(item.id, false), values, null, null);
+        queueWrite(context, item.id, values);
     }
 
     /**
@@ -427,13 +498,95 @@ public class LauncherModel extends BroadcastReceiver {
 //    }
     
     public static void deleteItemFromDatabase(Context context, ItemInfo item, boolean bIsAppMode) {
-        final ContentResolver cr = context.getContentResolver();
-        final Uri uriToDelete = /*false ? LauncherSettings.Favorites.getAppsContentUri(item.id, false) : */LauncherSettings.Favorites.getContentUri(item.id, false);
-        sWorker.post(new Runnable() {
-                public void run() {
-                    cr.delete(uriToDelete, null, null);
+        unregisterItem(item.id);
+        queueWrite(context, item.id, null);
+    }
+
+    /**
+     * Queue an update of row id with values, or its deletion if values is null.  Writes to
+     * the same row are merged, and everything queued within WRITE_BEHIND_DELAY is written
+     * in one batch on the worker thread.  Inserts aren't queued, since their callers need
+     * the new id back.
+     */
+    private static void queueWrite(Context context, long id, ContentValues values) {
+        synchronized (sPendingWrites) {
+            if (values == null) {
+                // A delete makes any pending update moot.
+                sPendingWrites.put(id, null);
+            } else if (sPendingWrites.containsKey(id)) {
+                final ContentValues pending = sPendingWrites.get(id);
+                if (pending != null) {
+                    pending.putAll(values);
                 }
-            });
+            } else {
+                sPendingWrites.put(id, values);
+            }
+            sPendingWritesResolver = context.getContentResolver();
+
+            if (!sFlushPosted) {
+                sFlushPosted = true;
+                sWorker.postDelayed(sFlushPendingWrites, WRITE_BEHIND_DELAY);
+            }
+        }
+    }
+
+    private static final Runnable sFlushPendingWrites = new Runnable() {
+        public void run() {
+            flushPendingWrites();
+        }
+    };
+
+    /**
+     * Run r on the loader's worker thread, after what's already queued there.
+     */
+    public static void runOnWorkerThread(Runnable r) {
+        sWorker.post(r);
+    }
+
+    /**
+     * Write everything queued by queueWrite() now, in one batch.  Called before anything
+     * reads or writes the favorites directly, so it sees and follows the queued writes,
+     * and from Launcher.onPause() so nothing is lost if we are killed in the background.
+     */
+    public static void flushPendingWrites() {
+        // Batches have to be applied in the order they were queued.
+        synchronized (sFlushLock) {
+            final ArrayList<ContentProviderOperation> ops;
+            final ContentResolver cr;
+            synchronized (sPendingWrites) {
+                sFlushPosted = false;
+                sWorker.removeCallbacks(sFlushPendingWrites);
+                if (sPendingWrites.isEmpty()) {
+                    return;
+                }
+
+                ops = new ArrayList<ContentProviderOperation>(sPendingWrites.size());
+                for (Map.Entry<Long, ContentValues> e : sPendingWrites.entrySet()) {
+                    final Uri uri = LauncherSettings.Favorites.getContentUri(e.getKey(), false);
+                    if (e.getValue() == null) {
+                        ops.add(ContentProviderOperation.newDelete(uri).build());
+                    } else {
+                        ops.add(ContentProviderOperation.newUpdate(uri)
+                                .withValues(e.getValue()).build());
+                    }
+                }
+                sPendingWrites.clear();
+                cr = sPendingWritesResolver;
+            }
+
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            try {
+                cr.applyBatch(LauncherProvider.AUTHORITY, ops);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Could not write " + ops.size() + " items", e);
+            } catch (OperationApplicationException e) {
+                Log.w(TAG, "Could not write " + ops.size() + " items", e);
+            }
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "wrote " + ops.size() + " items in "
+                        + (SystemClock.uptimeMillis()-t) + "ms");
+            }
+        }
     }
 
     /**
@@ -450,15 +603,29 @@ public class LauncherModel extends BroadcastReceiver {
     public static void deleteUserFolderContentsFromDatabase(Context context, UserFolderInfo info, boolean bIsAppMode) {
         final ContentResolver cr = context.getContentResolver();
 
-        if(false){
-        	cr.delete(LauncherSettings.Favorites.getAppsContentUri(info.id, false), null, null);
-	        cr.delete(LauncherSettings.Favorites.APPS_CONTENT_URI,
-	                LauncherSettings.Favorites.CONTAINER + "=" + info.id, null);
+        // An item moved out of the folder may still be waiting to be written; the delete
+        // by container below would take its row with it.
+        flushPendingWrites();
+
+        unregisterItem(info.id);
+        final int N = info.contents.size();
+        for (int i=0; i<N; i++) {
+            unregisterItem(info.contents.get(i).id);
         }
-        else{
-	        cr.delete(LauncherSettings.Favorites.getContentUri(info.id, false), null, null);
-	        cr.delete(LauncherSettings.Favorites.CONTENT_URI,
-	                LauncherSettings.Favorites.CONTAINER + "=" + info.id, null);
+
+        // The folder and its contents go in one transaction.
+        final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(2);
+        ops.add(ContentProviderOperation.newDelete(
+                LauncherSettings.Favorites.getContentUri(info.id, false)).build());
+        ops.add(ContentProviderOperation.newDelete(LauncherSettings.Favorites.CONTENT_URI)
+                .withSelection(LauncherSettings.Favorites.CONTAINER + "=" + info.id, null)
+                .build());
+        try {
+            cr.applyBatch(LauncherProvider.AUTHORITY, ops);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Could not delete folder " + info.id, e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Could not delete folder " + info.id, e);
         }
     }
 
@@ -594,6 +761,20 @@ public class LauncherModel extends BroadcastReceiver {
     }
 
     public void startLoader(Context context, boolean isLaunching) {
+        startLoader(context, isLaunching, false);
+    }
+
+    /**
+     * Bind what is already loaded to the current callbacks, with the icons re-rendered
+     * for the current style, without rereading the database or querying the package
+     * manager for the app list.  Whatever isn't loaded yet is loaded as usual.  Used
+     * when only the views are new, e.g. after a theme switch.
+     */
+    public void startRebind(Context context) {
+        startLoader(context, false, true);
+    }
+
+    private void startLoader(Context context, boolean isLaunching, boolean rebind) {
         synchronized (mLock) {
             if (DEBUG_LOADERS) {
                 Log.d(TAG, "startLoader isLaunching=" + isLaunching);
@@ -614,7 +795,7 @@ public class LauncherModel extends BroadcastReceiver {
                 if (mSupportCustomOrder/*FeatureOption.MTK_YMCAPROP_SUPPORT*/) {
                 	AllAppsList.loadTopPackage(context);
                 }
-                mLoaderTask = new LoaderTask(context, isLaunching);
+                mLoaderTask = new LoaderTask(context, isLaunching, rebind);
                 sWorker.post(mLoaderTask);
             }
         }
@@ -638,12 +819,15 @@ public class LauncherModel extends BroadcastReceiver {
         private Context mContext;
         private Thread mWaitThread;
         private boolean mIsLaunching;
+        // Only the views are new; keep what is loaded and restyle its icons.
+        private final boolean mRebind;
         private boolean mStopped;
         private boolean mLoadAndBindStepFinished;
 
-        LoaderTask(Context context, boolean isLaunching) {
+        LoaderTask(Context context, boolean isLaunching, boolean rebind) {
             mContext = context;
             mIsLaunching = isLaunching;
+            mRebind = rebind;
         }
 
         boolean isLaunching() {
@@ -688,18 +872,21 @@ public class LauncherModel extends BroadcastReceiver {
 				mWorkspaceLoaded = true;
 			}
 
-            // For now, just always reload the workspace.  It's ~100 ms vs. the
-            // binding which takes many hundreds of ms.
-            // We can reconsider.
+            // An explicit load always rereads the workspace, since whoever asked for it
+            // is about to rebuild its views anyway.  It's ~100 ms vs. the binding which
+            // takes many hundreds of ms.  Changes to the favorites once we are loaded
+            // don't come through here; WorkspaceDeltaTask applies them row by row, so
+            // a rebind can trust what is loaded and only redo the icons.
             if (DEBUG_LOADERS)
-				Log.d(TAG, "loadAndBindWorkspace loaded=" + loaded);
-            if (true || !loaded) {
+				Log.d(TAG, "loadAndBindWorkspace loaded=" + loaded + " rebind=" + mRebind);
+            if (mRebind && loaded) {
+                restyleWorkspaceIcons();
+            } else {
                 loadWorkspace();
-                if (mStopped) {
-					mWorkspaceLoaded = false;
-                    return;
-                }
-                //mWorkspaceLoaded = true;
+            }
+            if (mStopped) {
+				mWorkspaceLoaded = false;
+                return;
             }
 
             // Bind the workspace
@@ -810,18 +997,13 @@ public class LauncherModel extends BroadcastReceiver {
 
             // Trigger a gc to try to clean up after the stuff is done, since the
         	// renderscript allocations aren't charged to the java heap.
-        	if (mStopped) {
-	            mHandler.post(new Runnable() {
-	                    public void run() {
-	                        System.gc();
-	                    }
-	                });
-            } else {
-                mHandler.postIdle(new Runnable() {
-                        public void run() {
-                            System.gc();
-                        }
-                    });
+            mHandler.post(new Runnable() {
+                    public void run() {
+                        System.gc();
+                    }
+                }, DeferredHandler.LANE_HOUSEKEEPING);
+            if (!mStopped) {
+                postStyleVariantsTask(new StyleVariantsTask());
             }
         }
 
@@ -953,283 +1135,49 @@ public class LauncherModel extends BroadcastReceiver {
 	
 	            final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
 	
-	            final Cursor c = contentResolver.query(
-	                    LauncherSettings.Favorites.CONTENT_URI, null, null, null, null);
+	            // Read back what the workspace last wrote, not what it wrote before that.
+	            flushPendingWrites();
+	            final long tFlushed = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+	
+	            // One query for every launcher activity rather than one per row.
+	            final LoadCache cache = new LoadCache(manager, true);
+	            final long tResolved = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+	
+	            final Cursor c = contentResolver.query(LauncherSettings.Favorites.CONTENT_URI,
+	                    FavoritesColumns.PROJECTION, null, null, null);
+	            final long tQueried = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+	            int rows = 0;
 	
 	            final ItemInfo occupied[][][] = new ItemInfo[Launcher.SCREEN_COUNT][Launcher.NUMBER_CELLS_X][Launcher.NUMBER_CELLS_Y];
+	            final HashMap<Long, ItemInfo> itemsIdMap = new HashMap<Long, ItemInfo>();
+	            final HashSet<Long> ignoredIds = new HashSet<Long>();
+	            final HashMap<Long, Long> markers = new HashMap<Long, Long>();
 	
 	            try {
-	                final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
-	                final int intentIndex = c.getColumnIndexOrThrow
-	                        (LauncherSettings.Favorites.INTENT);
-	                final int titleIndex = c.getColumnIndexOrThrow
-	                        (LauncherSettings.Favorites.TITLE);
-	                final int iconTypeIndex = c.getColumnIndexOrThrow(
-	                        LauncherSettings.Favorites.ICON_TYPE);
-	                final int iconIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
-	                final int iconPackageIndex = c.getColumnIndexOrThrow(
-	                        LauncherSettings.Favorites.ICON_PACKAGE);
-	                final int iconResourceIndex = c.getColumnIndexOrThrow(
-	                        LauncherSettings.Favorites.ICON_RESOURCE);
-	                final int containerIndex = c.getColumnIndexOrThrow(
-	                        LauncherSettings.Favorites.CONTAINER);
-	                final int itemTypeIndex = c.getColumnIndexOrThrow(
-	                        LauncherSettings.Favorites.ITEM_TYPE);
-	                final int appWidgetIdIndex = c.getColumnIndexOrThrow(
-	                        LauncherSettings.Favorites.APPWIDGET_ID);
-	                final int screenIndex = c.getColumnIndexOrThrow(
-	                        LauncherSettings.Favorites.SCREEN);
-	                final int cellXIndex = c.getColumnIndexOrThrow
-	                        (LauncherSettings.Favorites.CELLX);
-	                final int cellYIndex = c.getColumnIndexOrThrow
-	                        (LauncherSettings.Favorites.CELLY);
-	                final int spanXIndex = c.getColumnIndexOrThrow
-	                        (LauncherSettings.Favorites.SPANX);
-	                final int spanYIndex = c.getColumnIndexOrThrow(
-	                        LauncherSettings.Favorites.SPANY);
-	                final int uriIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.URI);
-	                final int displayModeIndex = c.getColumnIndexOrThrow(
-	                        LauncherSettings.Favorites.DISPLAY_MODE);
-	                
-	                final int qsExtParamIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.QS_EXT_PARAM);
-	
-	                ShortcutInfo info;
-	                String intentDescription;
-	                LauncherAppWidgetInfo appWidgetInfo;
-	                int container;
+	                final FavoritesColumns columns = new FavoritesColumns(c);
+	                ItemInfo item;
 	                long id;
-	                Intent intent;
 	
 	                while (!mStopped && c.moveToNext()) {
+	                    id = c.getLong(columns.id);
+	                    rows++;
+	                    markers.put(id, rowMarker(c, columns));
 	                    try {
-	                        int itemType = c.getInt(itemTypeIndex);
-	
-	                        switch (itemType) {
-	                        case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
-	                        case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
-	                            intentDescription = c.getString(intentIndex);
-	                            try {
-	                                intent = Intent.parseUri(intentDescription, 0);
-	                            } catch (URISyntaxException e) {
-	                                continue;
-	                            }
-	
-	                            if (itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
-	                                info = getShortcutInfo(manager, intent, context, c, iconIndex,
-	                                        titleIndex);
-	                            } else {
-	                                info = getShortcutInfo(c, context, iconTypeIndex,
-	                                        iconPackageIndex, iconResourceIndex, iconIndex,
-	                                        titleIndex);
-	                            }
-	
-	                            if (info != null) {
-	                                updateSavedIcon(context, info, c, iconIndex);
-	
-	                                info.intent = intent;
-	                                info.id = c.getLong(idIndex);
-	                                container = c.getInt(containerIndex);
-	                                info.container = container;
-	                                info.screen = c.getInt(screenIndex);
-	                                info.cellX = c.getInt(cellXIndex);
-	                                info.cellY = c.getInt(cellYIndex);
-	                                
-	                                info.qsExtParam = c.getInt(qsExtParamIndex);
-	                                
-	                                // check & update map of what's occupied
-	                                if (!checkItemPlacement(occupied, info)) {
-	                                    break;
-	                                }
-	
-	                                switch (container) {
-	                                case LauncherSettings.Favorites.CONTAINER_DESKTOP:
-                                		mItems.add(info);
-	                                    break;
-	                                case LauncherSettings.Favorites.CONTAINER_HOTSET:
-	                                	mQsExtItems.add(info);
-	                                	break;
-	                                case LauncherSettings.Favorites.CONTAINER_CUSTOM_APPS:
-	                                	//mQsAppsItems.add(new ApplicationInfo(info));
-	                                	break;
-	                                default:
-	                                    // Item is in a user folder
-	                                    UserFolderInfo folderInfo =
-	                                            findOrMakeUserFolder(mFolders, container);
-	                                    folderInfo.add(info);
-	                                    break;
-	                                }
-	                            } else {
-	                                // Failed to load the shortcut, probably because the
-	                                // activity manager couldn't resolve it (maybe the app
-	                                // was uninstalled), or the db row was somehow screwed up.
-	                                // Delete it.
-	                                id = c.getLong(idIndex);
-	                                Log.e(TAG, "Error loading shortcut " + id + ", removing it");
-	                                contentResolver.delete(LauncherSettings.Favorites.getContentUri(
-	                                            id, false), null, null);
-	                            }
-	                            break;
-
-	                        case LauncherSettings.Favorites.ITEM_TYPE_USER_FOLDER:
-	                            id = c.getLong(idIndex);
-	                            UserFolderInfo folderInfo = findOrMakeUserFolder(mFolders, id);
-	
-	                            folderInfo.title = c.getString(titleIndex);
-	
-	                            folderInfo.id = id;
-	                            container = c.getInt(containerIndex);
-	                            folderInfo.container = container;
-	                            folderInfo.screen = c.getInt(screenIndex);
-	                            folderInfo.cellX = c.getInt(cellXIndex);
-	                            folderInfo.cellY = c.getInt(cellYIndex);
-	                            
-	                            folderInfo.qsExtParam = c.getInt(qsExtParamIndex);
-	
-	                            // check & update map of what's occupied
-	                            if (!checkItemPlacement(occupied, folderInfo)) {
-	                                break;
-	                            }
-	
-	                            switch (container) {
-	                                case LauncherSettings.Favorites.CONTAINER_DESKTOP:
-//	                                	if(folderInfo.qsExtParam > LauncherSettings.Favorites.QS_EXT_PARAM_DEFAULT)
-//	                                		mQsExtItems.add(folderInfo);
-//	                                	else
-	                                		mItems.add(folderInfo);
-	                                    break;
-	                                case LauncherSettings.Favorites.CONTAINER_HOTSET:
-	                                	mQsExtItems.add(folderInfo);
-	                                	break;
-	                            }
-	
-	                            mFolders.put(folderInfo.id, folderInfo);
-	                            break;
-	
-	                        case LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER:
-	                            id = c.getLong(idIndex);
-	                            Uri uri = Uri.parse(c.getString(uriIndex));
-	
-	                            // Make sure the live folder exists
-	                            final ProviderInfo providerInfo =
-	                                    context.getPackageManager().resolveContentProvider(
-	                                            uri.getAuthority(), 0);
-	
-	                            if (providerInfo == null && !isSafeMode) {
-	                                itemsToRemove.add(id);
-	                            } else {
-	                                LiveFolderInfo liveFolderInfo = findOrMakeLiveFolder(mFolders, id);
-	
-	                                intentDescription = c.getString(intentIndex);
-	                                intent = null;
-	                                if (intentDescription != null) {
-	                                    try {
-	                                        intent = Intent.parseUri(intentDescription, 0);
-	                                    } catch (URISyntaxException e) {
-	                                        // Ignore, a live folder might not have a base intent
-	                                    }
-	                                }
-	
-	                                liveFolderInfo.title = c.getString(titleIndex);
-	                                liveFolderInfo.id = id;
-	                                liveFolderInfo.uri = uri;
-	                                container = c.getInt(containerIndex);
-	                                liveFolderInfo.container = container;
-	                                liveFolderInfo.screen = c.getInt(screenIndex);
-	                                liveFolderInfo.cellX = c.getInt(cellXIndex);
-	                                liveFolderInfo.cellY = c.getInt(cellYIndex);
-	                                liveFolderInfo.baseIntent = intent;
-	                                liveFolderInfo.displayMode = c.getInt(displayModeIndex);
-	
-	                                // check & update map of what's occupied
-	                                if (!checkItemPlacement(occupied, liveFolderInfo)) {
-	                                    break;
-	                                }
-	
-	                                loadLiveFolderIcon(context, c, iconTypeIndex, iconPackageIndex,
-	                                        iconResourceIndex, liveFolderInfo);
-	
-	                                switch (container) {
-	                                    case LauncherSettings.Favorites.CONTAINER_DESKTOP:
-	                                        mItems.add(liveFolderInfo);
-	                                        break;
-	                                }
-	                                mFolders.put(liveFolderInfo.id, liveFolderInfo);
-	                            }
-	                            break;
-	
-	                        case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
-	                            // Read all Launcher-specific widget details
-	                            int appWidgetId = c.getInt(appWidgetIdIndex);
-	                            id = c.getLong(idIndex);
-	
-	                            final AppWidgetProviderInfo provider =
-	                                    widgets.getAppWidgetInfo(appWidgetId);
-	                            
-	                            if (!isSafeMode && (provider == null || provider.provider == null ||
-	                                    provider.provider.getPackageName() == null)) {
-	                                Log.e(TAG, "Deleting widget that isn't installed anymore: id="
-	                                        + id + " appWidgetId=" + appWidgetId);
-	                                itemsToRemove.add(id);
-	                            } else {
-	                                appWidgetInfo = new LauncherAppWidgetInfo(appWidgetId);
-	                                appWidgetInfo.id = id;
-	                                appWidgetInfo.screen = c.getInt(screenIndex);
-	                                appWidgetInfo.cellX = c.getInt(cellXIndex);
-	                                appWidgetInfo.cellY = c.getInt(cellYIndex);
-	                                appWidgetInfo.spanX = c.getInt(spanXIndex);
-	                                appWidgetInfo.spanY = c.getInt(spanYIndex);
-	
-	                                container = c.getInt(containerIndex);
-	                                if (container != LauncherSettings.Favorites.CONTAINER_DESKTOP) {
-	                                    Log.e(TAG, "Widget found where container "
-	                                            + "!= CONTAINER_DESKTOP -- ignoring!");
-	                                    continue;
-	                                }
-	                                appWidgetInfo.container = c.getInt(containerIndex);
-	
-	                                // check & update map of what's occupied
-	                                if (!checkItemPlacement(occupied, appWidgetInfo)) {
-	                                    break;
-	                                }
+	                        item = loadItem(context, manager, widgets, isSafeMode, c, columns,
+	                                cache, mFolders, itemsToRemove);
+	                        if (item == null) {
+	                            ignoredIds.add(id);
+	                            continue;
+	                        }
 	
-	                                mAppWidgets.add(appWidgetInfo);
-	                            }
-	                            break;
-	                            
-                            default:
-                            	if(itemType > LauncherSettings.Favorites.ITEM_TYPE_QS_FUNC_START
-                            			&& itemType < LauncherSettings.Favorites.ITEM_TYPE_QS_FUNC_END)
-                            	{
-                            		info = getShortcutInfo(c, context, iconTypeIndex,
-	                                        iconPackageIndex, iconResourceIndex, iconIndex,
-	                                        titleIndex);
-                            		
-                            		if (info != null) {
-    	                                //updateSavedIcon(context, info, c, iconIndex);
-                                        String resourceName = c.getString(iconResourceIndex);
-                                        
-                                        if(!TextUtils.isEmpty(resourceName)){
-	                            			info.iconResource = new Intent.ShortcutIconResource();
-	                                        info.iconResource.packageName = c.getString(iconPackageIndex);;
-	                                        info.iconResource.resourceName = resourceName;
-                                        }
-                                        
-    	                                info.itemType = itemType;
-    	                                
-    	                                info.id = c.getLong(idIndex);
-    	                                container = c.getInt(containerIndex);
-    	                                info.container = container;
-    	                                info.screen = c.getInt(screenIndex);
-    	                                info.cellX = c.getInt(cellXIndex);
-    	                                info.cellY = c.getInt(cellYIndex);
-    	                                
-    	                                info.qsExtParam = c.getInt(qsExtParamIndex);
-    	
-    	                                mQsExtItems.add(info);
-    	                            } 
-                            	}
-                            	break;
+	                        // check & update map of what's occupied
+	                        if (!isQsFuncItem(item) && !checkItemPlacement(occupied, item)) {
+	                            ignoredIds.add(id);
+	                            continue;
 	                        }
+	
+	                        addLoadedItem(item);
+	                        itemsIdMap.put(id, item);
 	                    } catch (Exception e) {
 	                        Log.w(TAG, "Desktop items loading interrupted:", e);
 	                    }
@@ -1238,30 +1186,33 @@ public class LauncherModel extends BroadcastReceiver {
 	            	if(c != null)
 	            		c.close();
 	            }
+	            final long tRead = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+	
+	            synchronized (sItemsIdMap) {
+	                sItemsIdMap.clear();
+	                sItemsIdMap.putAll(itemsIdMap);
+	                sIgnoredItemIds.clear();
+	                sIgnoredItemIds.addAll(ignoredIds);
+	                sItemMarkers.clear();
+	                sItemMarkers.putAll(markers);
+	            }
 	            
 	            
 	            loadQsExtDefaultApps();
+	            pinWorkspaceIcons();
 	
-	            if (itemsToRemove.size() > 0) {
-	                ContentProviderClient client = contentResolver.acquireContentProviderClient(
-	                                LauncherSettings.Favorites.CONTENT_URI);
-	                // Remove dead items
-	                for (long id : itemsToRemove) {
-	                    if (DEBUG_LOADERS) {
-	                        Log.d(TAG, "Removed id = " + id);
-	                    }
-	                    // Don't notify content observers
-	                    try {
-	                        client.delete(LauncherSettings.Favorites.getContentUri(id, false),
-	                                null, null);
-	                    } catch (RemoteException e) {
-	                        Log.w(TAG, "Could not remove id = " + id);
-	                    }
-	                }
-	            }
+	            final long tPublished = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+	
+	            removeDeadItems(contentResolver, itemsToRemove);
 	
 	            if (DEBUG_LOADERS) {
-	                Log.d(TAG, "loaded workspace in " + (SystemClock.uptimeMillis()-t) + "ms");
+	                final long tDone = SystemClock.uptimeMillis();
+	                Log.d(TAG, "loaded workspace in " + (tDone-t) + "ms");
+	                Log.d(TAG, "  flush " + (tFlushed-t) + "ms, resolve " + (tResolved-tFlushed)
+	                        + "ms, query " + (tQueried-tResolved) + "ms, read " + rows + " rows "
+	                        + (tRead-tQueried) + "ms, qs ext/pin " + (tPublished-tRead)
+	                        + "ms, delete " + itemsToRemove.size() + " dead "
+	                        + (tDone-tPublished) + "ms");
 	                Log.d(TAG, "workspace layout: ");
 	                for (int y = 0; y < Launcher.NUMBER_CELLS_Y; y++) {
 	                    String line = "";
@@ -1279,6 +1230,61 @@ public class LauncherModel extends BroadcastReceiver {
 			}
         }
         
+        /**
+         * Put a freshly loaded item where bindWorkspace() will find it.
+         */
+        private void addLoadedItem(ItemInfo item) {
+            if (isQsFuncItem(item)) {
+                mQsExtItems.add(item);
+                return;
+            }
+
+            switch (item.itemType) {
+            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                switch (item.container) {
+                case LauncherSettings.Favorites.CONTAINER_DESKTOP:
+                    mItems.add(item);
+                    break;
+                case LauncherSettings.Favorites.CONTAINER_HOTSET:
+                    mQsExtItems.add(item);
+                    break;
+                case LauncherSettings.Favorites.CONTAINER_CUSTOM_APPS:
+                    //mQsAppsItems.add(new ApplicationInfo(info));
+                    break;
+                default:
+                    // Item is in a user folder
+                    UserFolderInfo folderInfo = findOrMakeUserFolder(mFolders, item.container);
+                    folderInfo.add((ShortcutInfo) item);
+                    break;
+                }
+                break;
+
+            case LauncherSettings.Favorites.ITEM_TYPE_USER_FOLDER:
+                switch (item.container) {
+                case LauncherSettings.Favorites.CONTAINER_DESKTOP:
+                    mItems.add(item);
+                    break;
+                case LauncherSettings.Favorites.CONTAINER_HOTSET:
+                    mQsExtItems.add(item);
+                    break;
+                }
+                mFolders.put(item.id, (FolderInfo) item);
+                break;
+
+            case LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER:
+                if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                    mItems.add(item);
+                }
+                mFolders.put(item.id, (FolderInfo) item);
+                break;
+
+            case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                mAppWidgets.add((LauncherAppWidgetInfo) item);
+                break;
+            }
+        }
+
         // jz
         private void loadQsExtDefaultApps(){
         	final Callbacks oldCallbacks = mCallbacks.get();
@@ -1364,7 +1370,6 @@ public class LauncherModel extends BroadcastReceiver {
                 return;
             }
 
-            int N;
             // Tell the workspace that we're about to start firing items at it
             mHandler.post(new Runnable() {
                 public void run() {
@@ -1374,66 +1379,49 @@ public class LauncherModel extends BroadcastReceiver {
                     }
                 }
             });
+
+            // Split everything by how far it is from the screen the user is looking at.
+            // WARNING: this is calling into the workspace from the background thread,
+            // but since getCurrentScreen() just returns the int, we should be okay.  This
+            // is just a hint for the order, and if it's wrong, we'll be okay.
+            // TODO: instead, we should have that push the current screen into here.
+            final int currentScreen = oldCallbacks.getCurrentWorkspaceScreen();
+            final ArrayList<ItemInfo> currentItems = new ArrayList<ItemInfo>();
+            final ArrayList<ItemInfo> nearItems = new ArrayList<ItemInfo>();
+            final ArrayList<ItemInfo> otherItems = new ArrayList<ItemInfo>();
+            final ArrayList<LauncherAppWidgetInfo> currentWidgets =
+                    new ArrayList<LauncherAppWidgetInfo>();
+            final ArrayList<LauncherAppWidgetInfo> nearWidgets =
+                    new ArrayList<LauncherAppWidgetInfo>();
+            final ArrayList<LauncherAppWidgetInfo> otherWidgets =
+                    new ArrayList<LauncherAppWidgetInfo>();
+            int N = mItems.size();
+            for (int i=0; i<N; i++) {
+                final ItemInfo item = mItems.get(i);
+                final int distance = Math.abs(item.screen - currentScreen);
+                (distance == 0 ? currentItems : distance == 1 ? nearItems : otherItems).add(item);
+            }
+            N = mAppWidgets.size();
+            for (int i=0; i<N; i++) {
+                final LauncherAppWidgetInfo widget = mAppWidgets.get(i);
+                final int distance = Math.abs(widget.screen - currentScreen);
+                (distance == 0 ? currentWidgets : distance == 1 ? nearWidgets : otherWidgets)
+                        .add(widget);
+            }
+
+            // The current screen and the hotseat first.  Once they're done the loading UI goes
+            // away, and the rest binds behind them.  The workspace stays locked until all of
+            // it is bound.
             // jz add the items to bar or custom app workspace
-            if(oldCallbacks.isBindItemsFirst()){
-
-            	// Add the items to the workspace.
-	            N = mItems.size();
-	            for (int i=0; i<N; i+=ITEMS_CHUNK) {
-	                final int start = i;
-	                final int chunkSize = (i+ITEMS_CHUNK <= N) ? ITEMS_CHUNK : (N-i);
-	                mHandler.post(new Runnable() {
-	                    public void run() {
-	                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-	                        if (callbacks != null) {
-	                            callbacks.bindItems(mItems, start, start+chunkSize);
-	                        }
-	                    }
-	                });
-	            }
-	            
-	            N = mQsExtItems.size();
-	            if(N > 0) {
-	                mHandler.post(new Runnable() {
-	                    public void run() {
-	                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-	                        if (callbacks != null) {
-	                            callbacks.bindQsExtItems(mQsExtItems);
-	                        }
-	                    }
-	                });
-	            }
-	            
-            }else{
-            	
-	            N = mQsExtItems.size();
-	            if(N > 0) {
-	                mHandler.post(new Runnable() {
-	                    public void run() {
-	                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-	                        if (callbacks != null) {
-	                            callbacks.bindQsExtItems(mQsExtItems);
-	                        }
-	                    }
-	                });
-	            }
-	            
-	            // Add the items to the workspace.
-	            N = mItems.size();
-	            for (int i=0; i<N; i+=ITEMS_CHUNK) {
-	                final int start = i;
-	                final int chunkSize = (i+ITEMS_CHUNK <= N) ? ITEMS_CHUNK : (N-i);
-	                mHandler.post(new Runnable() {
-	                    public void run() {
-	                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-	                        if (callbacks != null) {
-	                            callbacks.bindItems(mItems, start, start+chunkSize);
-	                        }
-	                    }
-	                });
-	            }
+            if (oldCallbacks.isBindItemsFirst()) {
+                bindItems(oldCallbacks, currentItems, DeferredHandler.LANE_CURRENT_SCREEN);
+                bindQsExtItems(oldCallbacks);
+            } else {
+                bindQsExtItems(oldCallbacks);
+                bindItems(oldCallbacks, currentItems, DeferredHandler.LANE_CURRENT_SCREEN);
             }
-            
+            // Folders on every screen, so the ones left open can be restored in
+            // finishBindingItems().
             mHandler.post(new Runnable() {
                 public void run() {
                     Callbacks callbacks = tryGetCallbacks(oldCallbacks);
@@ -1441,62 +1429,35 @@ public class LauncherModel extends BroadcastReceiver {
                         callbacks.bindFolders(mFolders);
                     }
                 }
-            });
-            // Wait until the queue goes empty.
+            }, DeferredHandler.LANE_CURRENT_SCREEN);
+            bindAppWidgets(oldCallbacks, currentWidgets, DeferredHandler.LANE_CURRENT_SCREEN);
+            // Tell the workspace that we're done with what it shows.
             mHandler.post(new Runnable() {
                 public void run() {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.finishBindingCurrentScreen();
+                    }
                     if (DEBUG_LOADERS) {
-                        Log.d(TAG, "Going to start binding widgets soon.");
+                        Log.d(TAG, "bound current screen in "
+                            + (SystemClock.uptimeMillis()-t) + "ms");
                     }
                 }
-            });
-            // Bind the widgets, one at a time.
-            // WARNING: this is calling into the workspace from the background thread,
-            // but since getCurrentScreen() just returns the int, we should be okay.  This
-            // is just a hint for the order, and if it's wrong, we'll be okay.
-            // TODO: instead, we should have that push the current screen into here.
-            final int currentScreen = oldCallbacks.getCurrentWorkspaceScreen();
-            N = mAppWidgets.size();
-            // once for the current screen
-            for (int i=0; i<N; i++) {
-                final LauncherAppWidgetInfo widget = mAppWidgets.get(i);
-                if (widget.screen == currentScreen) {
-                    mHandler.post(new Runnable() {
-                        public void run() {
-                            Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                            if (callbacks != null) {
-                                callbacks.bindAppWidget(widget);
-                            }
-                        }
-                    });
-                }
-            }
-            // once for the other screens
-            for (int i=0; i<N; i++) {
-                final LauncherAppWidgetInfo widget = mAppWidgets.get(i);
-                if (widget.screen != currentScreen) {
-                    mHandler.post(new Runnable() {
-                        public void run() {
-                            Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                            if (callbacks != null) {
-                                callbacks.bindAppWidget(widget);
-                            }
-                        }
-                    });
-                }
-            }
-            // Tell the workspace that we're done.
+            }, DeferredHandler.LANE_CURRENT_SCREEN);
+
+            // Then the screens next to it, then the rest.
+            bindItems(oldCallbacks, nearItems, DeferredHandler.LANE_OTHER_SCREENS);
+            bindAppWidgets(oldCallbacks, nearWidgets, DeferredHandler.LANE_OTHER_SCREENS);
+            bindItems(oldCallbacks, otherItems, DeferredHandler.LANE_OTHER_SCREENS);
+            bindAppWidgets(oldCallbacks, otherWidgets, DeferredHandler.LANE_OTHER_SCREENS);
+
+            // After every screen is bound, so the saved state finds its views.
             mHandler.post(new Runnable() {
                 public void run() {
                     Callbacks callbacks = tryGetCallbacks(oldCallbacks);
                     if (callbacks != null) {
                         callbacks.finishBindingItems();
                     }
-                }
-            });
-            // If we're profiling, this is the last thing in the queue.
-            mHandler.post(new Runnable() {
-                public void run() {
                     if (DEBUG_LOADERS) {
                         Log.d(TAG, "bound workspace in "
                             + (SystemClock.uptimeMillis()-t) + "ms");
@@ -1505,6 +1466,58 @@ public class LauncherModel extends BroadcastReceiver {
             });
         }
 
+        /**
+         * Queue items to be bound in ITEMS_CHUNK sized pieces.
+         */
+        private void bindItems(final Callbacks oldCallbacks, final ArrayList<ItemInfo> items,
+                int lane) {
+            final int N = items.size();
+            for (int i=0; i<N; i+=ITEMS_CHUNK) {
+                final int start = i;
+                final int chunkSize = (i+ITEMS_CHUNK <= N) ? ITEMS_CHUNK : (N-i);
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                        if (callbacks != null) {
+                            callbacks.bindItems(items, start, start+chunkSize);
+                        }
+                    }
+                }, lane);
+            }
+        }
+
+        private void bindQsExtItems(final Callbacks oldCallbacks) {
+            if (mQsExtItems.size() > 0) {
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                        if (callbacks != null) {
+                            callbacks.bindQsExtItems(mQsExtItems);
+                        }
+                    }
+                }, DeferredHandler.LANE_CURRENT_SCREEN);
+            }
+        }
+
+        /**
+         * Queue widgets to be bound, one at a time.
+         */
+        private void bindAppWidgets(final Callbacks oldCallbacks,
+                ArrayList<LauncherAppWidgetInfo> widgets, int lane) {
+            final int N = widgets.size();
+            for (int i=0; i<N; i++) {
+                final LauncherAppWidgetInfo widget = widgets.get(i);
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                        if (callbacks != null) {
+                            callbacks.bindAppWidget(widget);
+                        }
+                    }
+                }, lane);
+            }
+        }
+
         private void loadAndBindAllApps() {
 			// Other other threads can unset mAllAppsLoaded, so atomically set it,
             // and then if they unset it, or we unset it because of mStopped, it will
@@ -1524,32 +1537,126 @@ public class LauncherModel extends BroadcastReceiver {
                     return;
                 }
             } else {
+                if (mRebind) {
+                    restyleAllApps();
+                    if (mStopped) {
+                        mAllAppsLoaded = false;
+                        return;
+                    }
+                }
                 onlyBindAllApps();
             }
         }
 
-        private void onlyBindAllApps() {
-            final Callbacks oldCallbacks = mCallbacks.get();
-        	//final CallbacksBindApps oldCallbacks = mCallbacksBindApps.get();
-            if (oldCallbacks == null) {
-                // This launcher has exited and nobody bothered to tell us.  Just bail.
-                Log.w(TAG, "LoaderTask running with no launcher (onlyBindAllApps)");
-                return;
+        /**
+         * Re-render the icons of the loaded application shortcuts for the current style.
+         * Other shortcuts keep the icon they were loaded with.
+         */
+        private void restyleWorkspaceIcons() {
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+
+            restyleShortcutIcons(mItems);
+            restyleShortcutIcons(mQsExtItems);
+            for (FolderInfo folder : mFolders.values()) {
+                if (folder instanceof UserFolderInfo) {
+                    restyleShortcutIcons(((UserFolderInfo) folder).contents);
+                }
             }
 
-            if (mSupportCustomOrder/*FeatureOption.MTK_YMCAPROP_SUPPORT*/) {
-            	PackageManager pm = mContext.getPackageManager();
-            	reorderApplist(mAllAppsList.data, pm);
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "restyled workspace icons in "
+                        + (SystemClock.uptimeMillis()-t) + "ms");
             }
-            
-            // shallow copy
-            final ArrayList<ApplicationInfo> list
-                    = (ArrayList<ApplicationInfo>)mAllAppsList.data.clone();
-            mHandler.post(new Runnable() {
-                public void run() {
-                    final long t = SystemClock.uptimeMillis();
-                    final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                    //final CallbacksBindApps callbacks = tryGetCallbacks(oldCallbacks);
+        }
+
+        private void restyleShortcutIcons(ArrayList<? extends ItemInfo> items) {
+            final int N = items.size();
+            for (int i=0; i<N && !mStopped; i++) {
+                final ItemInfo item = items.get(i);
+                if (isQsFuncItem(item) || !(item instanceof ShortcutInfo)
+                        || item.itemType != LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                    continue;
+                }
+                final ShortcutInfo info = (ShortcutInfo) item;
+                if (info.usingFallbackIcon || info.intent == null
+                        || info.intent.getComponent() == null) {
+                    continue;
+                }
+                info.setIcon(mIconCache.getIcon(info.intent));
+            }
+        }
+
+        /**
+         * Re-render the icons and titles of the loaded apps for the current style, on the
+         * icon render pool.  The package manager is only asked about the apps that have
+         * nothing stored for this style yet.
+         */
+        private void restyleAllApps() {
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            final ArrayList<ApplicationInfo> apps = mAllAppsList.data;
+            final int N = apps.size();
+
+            if (ICON_RENDER_THREADS > 1) {
+                final ExecutorService pool = getIconRenderPool();
+                final int priority = Process.getThreadPriority(Process.myTid());
+                final ArrayList<Future<?>> futures = new ArrayList<Future<?>>(N);
+                for (int i=0; i<N; i++) {
+                    final ApplicationInfo app = apps.get(i);
+                    futures.add(pool.submit(new Runnable() {
+                        public void run() {
+                            Process.setThreadPriority(priority);
+                            mIconCache.getTitleAndIcon(app, null);
+                        }
+                    }));
+                }
+                for (int i=0; i<N; i++) {
+                    final Future<?> future = futures.get(i);
+                    if (mStopped) {
+                        future.cancel(false);
+                        continue;
+                    }
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        future.cancel(false);
+                    } catch (ExecutionException e) {
+                        Log.w(TAG, "Failed to restyle " + apps.get(i).componentName, e.getCause());
+                    }
+                }
+            } else {
+                for (int i=0; i<N && !mStopped; i++) {
+                    mIconCache.getTitleAndIcon(apps.get(i), null);
+                }
+            }
+
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "restyled " + N + " apps in "
+                        + (SystemClock.uptimeMillis()-t) + "ms");
+            }
+        }
+
+        private void onlyBindAllApps() {
+            final Callbacks oldCallbacks = mCallbacks.get();
+        	//final CallbacksBindApps oldCallbacks = mCallbacksBindApps.get();
+            if (oldCallbacks == null) {
+                // This launcher has exited and nobody bothered to tell us.  Just bail.
+                Log.w(TAG, "LoaderTask running with no launcher (onlyBindAllApps)");
+                return;
+            }
+
+            if (mSupportCustomOrder/*FeatureOption.MTK_YMCAPROP_SUPPORT*/) {
+            	PackageManager pm = mContext.getPackageManager();
+            	reorderApplist(mAllAppsList.data, pm);
+            }
+            
+            // shallow copy
+            final ArrayList<ApplicationInfo> list
+                    = (ArrayList<ApplicationInfo>)mAllAppsList.data.clone();
+            mHandler.post(new Runnable() {
+                public void run() {
+                    final long t = SystemClock.uptimeMillis();
+                    final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    //final CallbacksBindApps callbacks = tryGetCallbacks(oldCallbacks);
                     if (callbacks != null) {
                         callbacks.bindAllApplications(list);
                     }
@@ -1558,7 +1665,7 @@ public class LauncherModel extends BroadcastReceiver {
                                 + (SystemClock.uptimeMillis()-t) + "ms");
                     }
                 }
-            });
+            }, DeferredHandler.LANE_ALL_APPS);
 
         }
 
@@ -1624,10 +1731,21 @@ public class LauncherModel extends BroadcastReceiver {
                 final long t2 = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
 
                 startIndex = i;
-                for (int j=0; i<N && j<batchSize; j++) {
-                    // This builds the icon bitmaps.
-                    mAllAppsList.add(new ApplicationInfo(packageManager, apps.get(i), mIconCache));
-                    i++;
+                final int end = Math.min(N, i + batchSize);
+                if (ICON_RENDER_THREADS > 1) {
+                    // This builds the icon bitmaps, on all cores, and adds them back in order.
+                    final ArrayList<ApplicationInfo> infos =
+                            renderApplicationInfos(packageManager, apps, i, end);
+                    final int count = infos.size();
+                    for (int j=0; j<count; j++) {
+                        mAllAppsList.add(infos.get(j));
+                    }
+                    i = end;
+                } else {
+                    for (; i<end; i++) {
+                        // This builds the icon bitmaps.
+                        mAllAppsList.add(new ApplicationInfo(packageManager, apps.get(i), mIconCache));
+                    }
                 }
 
                 if (mSupportCustomOrder/*FeatureOption.MTK_YMCAPROP_SUPPORT*/) {
@@ -1657,7 +1775,7 @@ public class LauncherModel extends BroadcastReceiver {
                             Log.i(TAG, "not binding apps: no Launcher activity");
                         }
                     }
-                });
+                }, DeferredHandler.LANE_ALL_APPS);
 
                 if (DEBUG_LOADERS) {
                     Log.d(TAG, "batch of " + (i-startIndex) + " icons processed in "
@@ -1681,6 +1799,47 @@ public class LauncherModel extends BroadcastReceiver {
             }
         }
         
+        /**
+         * Build the ApplicationInfos for apps[start, end) on the icon render pool.  The
+         * result is in the same order as apps.  Stops early, returning what is done so
+         * far, if we get stopped.
+         */
+        private ArrayList<ApplicationInfo> renderApplicationInfos(
+                final PackageManager packageManager, List<ResolveInfo> apps, int start, int end) {
+            final ExecutorService pool = getIconRenderPool();
+            final int priority = Process.getThreadPriority(Process.myTid());
+            final ArrayList<Future<ApplicationInfo>> futures =
+                    new ArrayList<Future<ApplicationInfo>>(end - start);
+            for (int i=start; i<end; i++) {
+                final ResolveInfo info = apps.get(i);
+                futures.add(pool.submit(new Callable<ApplicationInfo>() {
+                    public ApplicationInfo call() {
+                        // Run at the loader's priority, which changes while launching.
+                        Process.setThreadPriority(priority);
+                        return new ApplicationInfo(packageManager, info, mIconCache);
+                    }
+                }));
+            }
+
+            final ArrayList<ApplicationInfo> infos = new ArrayList<ApplicationInfo>(end - start);
+            final int N = futures.size();
+            for (int i=0; i<N; i++) {
+                final Future<ApplicationInfo> future = futures.get(i);
+                if (mStopped) {
+                    future.cancel(false);
+                    continue;
+                }
+                try {
+                    infos.add(future.get());
+                } catch (InterruptedException e) {
+                    future.cancel(false);
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Failed to load " + apps.get(start + i), e.getCause());
+                }
+            }
+            return infos;
+        }
+
         private void reorderApplist(ArrayList<ApplicationInfo> list,PackageManager packageManager) {
             final long sortTime = DEBUG_LOADERS_REORDER ? SystemClock.uptimeMillis() : 0;
                             
@@ -1718,8 +1877,216 @@ public class LauncherModel extends BroadcastReceiver {
         }
     }
 
+    private static synchronized ExecutorService getIconRenderPool() {
+        if (sIconRenderPool == null) {
+            sIconRenderPool = Executors.newFixedThreadPool(ICON_RENDER_THREADS,
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger(1);
+
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r, "launcher-icons-" + mCount.getAndIncrement());
+                        }
+                    });
+        }
+        return sIconRenderPool;
+    }
+
+    /**
+     * Called on the UI thread when the favorites change.  uri names the row if only one
+     * row changed.  Changes are collected and applied together by WorkspaceDeltaTask.
+     */
+    public void onFavoritesChanged(Uri uri) {
+        long id = -1;
+        if (uri != null) {
+            final List<String> segments = uri.getPathSegments();
+            if (segments.size() == 2
+                    && LauncherProvider.TABLE_FAVORITES.equals(segments.get(0))) {
+                try {
+                    id = Long.parseLong(segments.get(1));
+                } catch (NumberFormatException e) {
+                    // Fall back to a rescan
+                }
+            }
+        }
+
+        synchronized (mChangedItemIds) {
+            if (id < 0) {
+                mRescanItemIds = true;
+            } else {
+                mChangedItemIds.add(id);
+            }
+            if (mWorkspaceDeltaPosted) {
+                return;
+            }
+            mWorkspaceDeltaPosted = true;
+        }
+        sWorker.post(new WorkspaceDeltaTask());
+    }
+
+    /**
+     * Packages that change within PACKAGE_EVENTS_DELAY of each other are applied
+     * together by PackageEventsTask, and each one only for the net effect of its events.
+     */
     public void enqueuePackageUpdated(PackageUpdatedTask task) {
-        sWorker.post(task);
+        if (task.mPackages == null) {
+            return;
+        }
+        synchronized (mPendingPackageOps) {
+            for (String packageName : task.mPackages) {
+                final Integer pending = mPendingPackageOps.get(packageName);
+                mPendingPackageOps.put(packageName, coalescePackageOps(
+                        pending != null ? pending : PackageUpdatedTask.OP_NONE, task.mOp));
+            }
+            if (mPackageEventsPosted) {
+                return;
+            }
+            mPackageEventsPosted = true;
+        }
+        sWorker.postDelayed(new PackageEventsTask(), PACKAGE_EVENTS_DELAY);
+    }
+
+    /**
+     * The one op that does what pending followed by op would.
+     */
+    private static int coalescePackageOps(int pending, int op) {
+        switch (op) {
+            case PackageUpdatedTask.OP_UPDATE:
+                // Adding reads the package as it is now anyway.
+                return pending == PackageUpdatedTask.OP_ADD ? pending : op;
+            case PackageUpdatedTask.OP_ADD:
+                // Back after going away: some of its apps may still be in the list.
+                return pending == PackageUpdatedTask.OP_NONE || pending == PackageUpdatedTask.OP_ADD
+                        ? op : PackageUpdatedTask.OP_UPDATE;
+            default:
+                return op;
+        }
+    }
+
+    /**
+     * Renders, a few at a time while the UI is idle, the icons that the recently used
+     * styles are missing, so switching back to one of them doesn't render.  Gives up
+     * when a loader is started; that loader posts a new one when it is done.
+     */
+    private class StyleVariantsTask implements Runnable {
+        private final ArrayList<ComponentName> mComponents;
+
+        StyleVariantsTask() {
+            final ArrayList<ApplicationInfo> apps = mAllAppsList.data;
+            final int N = apps.size();
+            mComponents = new ArrayList<ComponentName>(N);
+            for (int i=0; i<N; i++) {
+                mComponents.add(apps.get(i).componentName);
+            }
+        }
+
+        public void run() {
+            synchronized (mLock) {
+                if (mLoaderTask != null) {
+                    return;
+                }
+            }
+            if (mIconCache.prerenderStyleVariants(mComponents, STYLE_VARIANTS_BATCH)) {
+                postStyleVariantsTask(this);
+            }
+        }
+    }
+
+    private void postStyleVariantsTask(final StyleVariantsTask task) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                sWorker.post(task);
+            }
+        }, DeferredHandler.LANE_HOUSEKEEPING);
+    }
+
+    /**
+     * Applies the pending package ops and tells the callbacks what changed, once.
+     */
+    private class PackageEventsTask implements Runnable {
+        public void run() {
+            final HashMap<Integer, ArrayList<String>> packagesByOp =
+                    new HashMap<Integer, ArrayList<String>>();
+            synchronized (mPendingPackageOps) {
+                mPackageEventsPosted = false;
+                for (Map.Entry<String, Integer> e : mPendingPackageOps.entrySet()) {
+                    ArrayList<String> packages = packagesByOp.get(e.getValue());
+                    if (packages == null) {
+                        packages = new ArrayList<String>();
+                        packagesByOp.put(e.getValue(), packages);
+                    }
+                    packages.add(e.getKey());
+                }
+                mPendingPackageOps.clear();
+            }
+
+            // Apps on unmounted media may come back, so they go in their own list.
+            apply(packagesByOp, PackageUpdatedTask.OP_UNAVAILABLE);
+            final ArrayList<ApplicationInfo> unavailable = takeList(mAllAppsList.removed);
+            mAllAppsList.removed = new ArrayList<ApplicationInfo>();
+
+            apply(packagesByOp, PackageUpdatedTask.OP_REMOVE);
+            apply(packagesByOp, PackageUpdatedTask.OP_UPDATE);
+            apply(packagesByOp, PackageUpdatedTask.OP_ADD);
+
+            final ArrayList<ApplicationInfo> added = takeList(mAllAppsList.added);
+            mAllAppsList.added = new ArrayList<ApplicationInfo>();
+            final ArrayList<ApplicationInfo> removed = takeList(mAllAppsList.removed);
+            mAllAppsList.removed = new ArrayList<ApplicationInfo>();
+            final ArrayList<ApplicationInfo> modified = takeList(mAllAppsList.modified);
+            mAllAppsList.modified = new ArrayList<ApplicationInfo>();
+
+            if (removed != null) {
+                for (ApplicationInfo info: removed) {
+                    mIconCache.remove(info.intent.getComponent());
+                }
+            }
+            if (unavailable != null) {
+                for (ApplicationInfo info: unavailable) {
+                    mIconCache.remove(info.intent.getComponent());
+                }
+            }
+
+            if (added == null && modified == null && removed == null && unavailable == null) {
+                return;
+            }
+
+            final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
+            if (callbacks == null) {
+                Log.w(TAG, "Nobody to tell about the new app.  Launcher is probably loading.");
+                return;
+            }
+
+            mHandler.post(new Runnable() {
+                public void run() {
+                    if (callbacks != mCallbacks.get()) {
+                        return;
+                    }
+                    if (added != null) {
+                        callbacks.bindAppsAdded(added);
+                    }
+                    if (modified != null) {
+                        callbacks.bindAppsUpdated(modified);
+                    }
+                    if (removed != null) {
+                        callbacks.bindAppsRemoved(removed, true);
+                    }
+                    if (unavailable != null) {
+                        callbacks.bindAppsRemoved(unavailable, false);
+                    }
+                }
+            });
+        }
+
+        private void apply(HashMap<Integer, ArrayList<String>> packagesByOp, int op) {
+            final ArrayList<String> packages = packagesByOp.get(op);
+            if (packages != null) {
+                new PackageUpdatedTask(op, packages.toArray(new String[packages.size()])).run();
+            }
+        }
+
+        private ArrayList<ApplicationInfo> takeList(ArrayList<ApplicationInfo> list) {
+            return list.size() > 0 ? list : null;
+        }
     }
 
     private class PackageUpdatedTask implements Runnable {
@@ -1738,22 +2105,48 @@ public class LauncherModel extends BroadcastReceiver {
             mPackages = packages;
         }
 
+        /**
+         * Applies the op to mAllAppsList. What changed is left in its added, removed and
+         * modified lists for PackageEventsTask to pick up.
+         */
         public void run() {
             final Context context = mApp;
 
             final String[] packages = mPackages;
             final int N = packages.length;
+            switch (mOp) {
+                case OP_ADD:
+                case OP_UPDATE:
+                case OP_REMOVE:
+                    // Whatever was rendered for the old version of these packages is stale.
+                    for (int i=0; i<N; i++) {
+                        mIconCache.removePackage(packages[i]);
+                    }
+                    break;
+            }
+
+            // A single package is looked up by itself. For more than that, one query of
+            // the whole system, split up by package, is cheaper than one query each.
+            HashMap<String, List<ResolveInfo>> matches = null;
+            if ((mOp == OP_ADD || mOp == OP_UPDATE) && N > 1) {
+                matches = AllAppsList.findActivitiesForPackages(context, packages);
+            }
+
             switch (mOp) {
                 case OP_ADD:
                     for (int i=0; i<N; i++) {
                         if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.addPackage " + packages[i]);
-                        mAllAppsList.addPackage(context, packages[i]);
+                        mAllAppsList.addPackage(context, packages[i], matches != null
+                                ? matches.get(packages[i])
+                                : AllAppsList.findActivitiesForPackage(context, packages[i]));
                     }
                     break;
                 case OP_UPDATE:
                     for (int i=0; i<N; i++) {
                         if (DEBUG_LOADERS) Log.d(TAG, "mAllAppsList.updatePackage " + packages[i]);
-                        mAllAppsList.updatePackage(context, packages[i]);
+                        mAllAppsList.updatePackage(context, packages[i], matches != null
+                                ? matches.get(packages[i])
+                                : AllAppsList.findActivitiesForPackage(context, packages[i]));
                     }
                     break;
                 case OP_REMOVE:
@@ -1764,101 +2157,289 @@ public class LauncherModel extends BroadcastReceiver {
                     }
                     break;
             }
+        }
+    }
 
-            ArrayList<ApplicationInfo> added = null;
-            ArrayList<ApplicationInfo> removed = null;
-            ArrayList<ApplicationInfo> modified = null;
+    /**
+     * Applies the favorites rows that changed since we loaded: rereads only those rows and
+     * binds only what was inserted, updated or deleted, rather than reloading the workspace.
+     */
+    private class WorkspaceDeltaTask implements Runnable {
+        public void run() {
+            final HashSet<Long> ids;
+            final boolean rescan;
+            synchronized (mChangedItemIds) {
+                ids = new HashSet<Long>(mChangedItemIds);
+                rescan = mRescanItemIds;
+                mChangedItemIds.clear();
+                mRescanItemIds = false;
+                mWorkspaceDeltaPosted = false;
+            }
 
-            if (mAllAppsList.added.size() > 0) {
-                added = mAllAppsList.added;
-                mAllAppsList.added = new ArrayList<ApplicationInfo>();
+            // Only touched on this thread.
+            if (!mWorkspaceLoaded) {
+                // Nothing to apply it to; whatever is loading next will read it all anyway.
+                startLoader(mApp, false);
+                return;
             }
-            if (mAllAppsList.removed.size() > 0) {
-                removed = mAllAppsList.removed;
-                mAllAppsList.removed = new ArrayList<ApplicationInfo>();
-                for (ApplicationInfo info: removed) {
-                    mIconCache.remove(info.intent.getComponent());
+
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            final Context context = mApp;
+            final ContentResolver contentResolver = context.getContentResolver();
+
+            // Otherwise rows we already deleted would look like they were added behind our back.
+            flushPendingWrites();
+
+            if (rescan) {
+                // Somebody changed more than one row, or rows we can't name.  Comparing
+                // each row's marker with the one we read last tells us what was inserted,
+                // updated or deleted, without reading the icons.
+                final HashMap<Long, Long> current = new HashMap<Long, Long>();
+                final Cursor c = contentResolver.query(LauncherSettings.Favorites.CONTENT_URI,
+                        FavoritesColumns.PROJECTION, null, null, null);
+                if (c == null) {
+                    return;
+                }
+                try {
+                    final FavoritesColumns columns = new FavoritesColumns(c);
+                    while (c.moveToNext()) {
+                        current.put(c.getLong(columns.id), rowMarker(c, columns));
+                    }
+                } finally {
+                    c.close();
+                }
+
+                synchronized (sItemsIdMap) {
+                    for (Map.Entry<Long, Long> e : current.entrySet()) {
+                        if (!e.getValue().equals(sItemMarkers.get(e.getKey()))) {
+                            ids.add(e.getKey());
+                        }
+                    }
+                    for (Long id : sItemsIdMap.keySet()) {
+                        if (!current.containsKey(id)) {
+                            ids.add(id);
+                        }
+                    }
+                    sIgnoredItemIds.retainAll(current.keySet());
+                    sItemMarkers.keySet().retainAll(current.keySet());
                 }
             }
-            if (mAllAppsList.modified.size() > 0) {
-                modified = mAllAppsList.modified;
-                mAllAppsList.modified = new ArrayList<ApplicationInfo>();
+            if (ids.isEmpty()) {
+                return;
             }
 
-            final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
-            //final CallbacksBindApps callbacks = mCallbacksBindApps != null ? mCallbacksBindApps.get() : null;
-            
-            if (callbacks == null) {
-                Log.w(TAG, "Nobody to tell about the new app.  Launcher is probably loading.");
+            final StringBuilder where = new StringBuilder(LauncherSettings.Favorites._ID + " IN (");
+            boolean first = true;
+            for (Long id : ids) {
+                if (!first) {
+                    where.append(',');
+                }
+                where.append(id);
+                first = false;
+            }
+            where.append(')');
+
+            final PackageManager manager = context.getPackageManager();
+            final AppWidgetManager widgets = AppWidgetManager.getInstance(context);
+            final boolean isSafeMode = manager.isSafeMode();
+            // Folders read here are new objects; the ones on screen are left alone.
+            final HashMap<Long, FolderInfo> folders = new HashMap<Long, FolderInfo>();
+            final ArrayList<Long> itemsToRemove = new ArrayList<Long>();
+            final ArrayList<ItemInfo> added = new ArrayList<ItemInfo>();
+            final HashSet<Long> ignoredIds = new HashSet<Long>();
+            final HashMap<Long, Long> markers = new HashMap<Long, Long>();
+
+            final Cursor c = contentResolver.query(LauncherSettings.Favorites.CONTENT_URI,
+                    FavoritesColumns.PROJECTION, where.toString(), null, null);
+            if (c == null) {
                 return;
             }
-
-            if (added != null) {
-                final ArrayList<ApplicationInfo> addedFinal = added;
-                mHandler.post(new Runnable() {
-                    public void run() {
-                    	if (callbacks == mCallbacks.get()) {
-                        //if (callbacks == mCallbacksBindApps.get()) {
-                            callbacks.bindAppsAdded(addedFinal);
+            try {
+                final FavoritesColumns columns = new FavoritesColumns(c);
+                // Only a few rows, so not worth looking up every activity.
+                final LoadCache cache = new LoadCache(manager, false);
+                while (c.moveToNext()) {
+                    final long id = c.getLong(columns.id);
+                    markers.put(id, rowMarker(c, columns));
+                    try {
+                        final ItemInfo item = loadItem(context, manager, widgets, isSafeMode, c,
+                                columns, cache, folders, itemsToRemove);
+                        if (item != null) {
+                            added.add(item);
+                        } else {
+                            ignoredIds.add(id);
                         }
+                    } catch (Exception e) {
+                        Log.w(TAG, "Desktop item " + id + " loading interrupted:", e);
                     }
-                });
+                }
+            } finally {
+                c.close();
             }
-            if (modified != null) {
-                final ArrayList<ApplicationInfo> modifiedFinal = modified;
-                mHandler.post(new Runnable() {
-                    public void run() {
-                    	if (callbacks == mCallbacks.get()) {
-                            //if (callbacks == mCallbacksBindApps.get()) {
-                            callbacks.bindAppsUpdated(modifiedFinal);
-                        }
+            removeDeadItems(contentResolver, itemsToRemove);
+
+            // Whatever we knew by these ids is replaced by what we just read, or is gone.
+            final ArrayList<ItemInfo> removed = new ArrayList<ItemInfo>();
+            synchronized (sItemsIdMap) {
+                for (Long id : ids) {
+                    final ItemInfo old = sItemsIdMap.remove(id);
+                    if (old != null) {
+                        removed.add(old);
                     }
-                });
+                    sIgnoredItemIds.remove(id);
+                    sItemMarkers.remove(id);
+                }
+                final int N = added.size();
+                for (int i=0; i<N; i++) {
+                    final ItemInfo item = added.get(i);
+                    sItemsIdMap.put(item.id, item);
+                }
+                sIgnoredItemIds.addAll(ignoredIds);
+                sItemMarkers.putAll(markers);
             }
-            if (removed != null) {
-                final boolean permanent = mOp != OP_UNAVAILABLE;
-                final ArrayList<ApplicationInfo> removedFinal = removed;
-                mHandler.post(new Runnable() {
-                    public void run() {
-                    	if (callbacks == mCallbacks.get()) {
-                            //if (callbacks == mCallbacksBindApps.get()) {
-                            callbacks.bindAppsRemoved(removedFinal, permanent);
-                        }
+
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "workspace delta of " + ids.size() + " rows: " + added.size()
+                        + " read, " + removed.size() + " replaced in "
+                        + (SystemClock.uptimeMillis()-t) + "ms");
+            }
+            if (removed.isEmpty() && added.isEmpty()) {
+                return;
+            }
+
+            final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
+            mHandler.post(new Runnable() {
+                public void run() {
+                    applyWorkspaceDelta(callbacks, removed, added);
+                }
+            });
+        }
+    }
+
+    /**
+     * Swap the removed items for the added ones in the model, and tell callbacks.  Runs on
+     * the UI thread, after any binding that was queued before it.
+     */
+    private void applyWorkspaceDelta(Callbacks callbacks, ArrayList<ItemInfo> removed,
+            ArrayList<ItemInfo> added) {
+        final ArrayList<ItemInfo> removedViews = new ArrayList<ItemInfo>();
+        final ArrayList<ItemInfo> addedViews = new ArrayList<ItemInfo>();
+        final ArrayList<LauncherAppWidgetInfo> addedWidgets = new ArrayList<LauncherAppWidgetInfo>();
+        final ArrayList<FolderInfo> changedFolders = new ArrayList<FolderInfo>();
+        boolean qsExtChanged = false;
+
+        // A folder that was only updated keeps what is in it.
+        for (ItemInfo item : added) {
+            if (item instanceof UserFolderInfo) {
+                for (ItemInfo old : removed) {
+                    if (old.id == item.id && old instanceof UserFolderInfo) {
+                        ((UserFolderInfo) item).contents.addAll(((UserFolderInfo) old).contents);
                     }
-                });
+                }
             }
         }
+
+        for (ItemInfo item : removed) {
+            if (item.container >= 0) {
+                final FolderInfo folder = findFolder(item.container);
+                if (folder instanceof UserFolderInfo && item instanceof ShortcutInfo) {
+                    ((UserFolderInfo) folder).remove((ShortcutInfo) item);
+                    changedFolders.add(folder);
+                }
+                continue;
+            }
+            if (mQsExtItems.remove(item)) {
+                qsExtChanged = true;
+            } else {
+                mItems.remove(item);
+                mAppWidgets.remove(item);
+                removedViews.add(item);
+            }
+            if (item instanceof FolderInfo) {
+                mFolders.remove(item.id);
+            }
+        }
+
+        for (ItemInfo item : added) {
+            if (item.container >= 0) {
+                final FolderInfo folder = findFolder(item.container);
+                if (folder instanceof UserFolderInfo && item instanceof ShortcutInfo) {
+                    ((UserFolderInfo) folder).add((ShortcutInfo) item);
+                    changedFolders.add(folder);
+                }
+                continue;
+            }
+            if (item instanceof FolderInfo) {
+                mFolders.put(item.id, (FolderInfo) item);
+            }
+            if (isQsFuncItem(item) || item.container == LauncherSettings.Favorites.CONTAINER_HOTSET) {
+                mQsExtItems.add(item);
+                qsExtChanged = true;
+            } else if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                // Not shown anywhere, same as when loading.
+            } else if (item instanceof LauncherAppWidgetInfo) {
+                mAppWidgets.add((LauncherAppWidgetInfo) item);
+                addedWidgets.add((LauncherAppWidgetInfo) item);
+            } else {
+                mItems.add(item);
+                addedViews.add(item);
+            }
+        }
+        pinWorkspaceIcons();
+
+        if (callbacks == null || callbacks != mCallbacks.get()) {
+            return;
+        }
+        if (removedViews.size() > 0) {
+            callbacks.bindItemsRemoved(removedViews);
+        }
+        if (addedViews.size() > 0) {
+            callbacks.bindItems(addedViews, 0, addedViews.size());
+        }
+        final int N = addedWidgets.size();
+        for (int i=0; i<N; i++) {
+            callbacks.bindAppWidget(addedWidgets.get(i));
+        }
+        if (qsExtChanged) {
+            callbacks.bindQsExtItems(mQsExtItems);
+        }
+        if (changedFolders.size() > 0) {
+            callbacks.bindFoldersChanged(changedFolders);
+        }
     }
-    
-//    public void changeSmsShortcutIcon(ComponentName component, Bitmap icon) {
-//    	//if(isDesktopLoaded())
-//    	if(mWorkspaceLoaded)
-//    	{
-//	    	int ncount = mItems.size();
-//	    	Log.d("QsLog", "changeSmsShortcutIcon()==ncount:"+ncount+"==");
-//	    	for(int i=0; i<ncount; i++)
-//	    	{
-//	    		final ItemInfo info = mItems.get(i);
-//	    		if(info.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION)
-//	    		{
-//	    			//final ResolveInfo resolveInfo = manager.resolveActivity(((ApplicationInfo)info).intent, 0);
-//	    			//final ActivityInfo activityInfo = resolveInfo.activityInfo; ShortcutInfo
-//	    			if(component.equals(((ShortcutInfo)info).intent.getComponent()))
-//	    			{
-//	    				((ShortcutInfo)info).setIcon(icon);
-//	    				Log.d("QsLog", "changeSmsShortcutIcon()==change shortcut success==");
-//	    			}
-//	    		}
-//	    	}
-//    	}
-//    	else
-//    	{
-//    		Log.d("QsLog", "changeSmsShortcutIcon()==isDesktopLoaded is false==");
-//    	}
-//
-//        // mIconCache.changeSmsShortcutIcon(component, icon);
-//    }
 
+    private static FolderInfo findFolder(long id) {
+        synchronized (sItemsIdMap) {
+            final ItemInfo item = sItemsIdMap.get(id);
+            return item instanceof FolderInfo ? (FolderInfo) item : null;
+        }
+    }
+
+    /**
+     * Keep the icons of everything on the workspace and the hotseat in the icon
+     * cache, whatever else gets evicted.
+     */
+    private void pinWorkspaceIcons() {
+        final ArrayList<ComponentName> pinned = new ArrayList<ComponentName>();
+        addAppComponents(mItems, pinned);
+        addAppComponents(mQsExtItems, pinned);
+        mIconCache.setPinnedComponents(pinned);
+    }
+
+    private static void addAppComponents(ArrayList<ItemInfo> items, ArrayList<ComponentName> out) {
+        final int N = items.size();
+        for (int i=0; i<N; i++) {
+            final ItemInfo item = items.get(i);
+            if (item.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+                    && item instanceof ShortcutInfo) {
+                final Intent intent = ((ShortcutInfo) item).intent;
+                if (intent != null && intent.getComponent() != null) {
+                    out.add(intent.getComponent());
+                }
+            }
+        }
+    }
+    
     /**
      * This is called from the code that adds shortcuts from the intent receiver.  This
      * doesn't have a Cursor, but
@@ -1873,7 +2454,20 @@ public class LauncherModel extends BroadcastReceiver {
      * If c is not null, then it will be used to fill in missing data like the title and icon.
      */
     public ShortcutInfo getShortcutInfo(PackageManager manager, Intent intent, Context context,
-            Cursor c, int iconIndex, int titleIndex) {
+            Cursor c, int iconHashIndex, int titleIndex) {
+        if (intent.getComponent() == null) {
+            return null;
+        }
+        return getShortcutInfo(manager, intent, manager.resolveActivity(intent, 0), context,
+                c, iconHashIndex, titleIndex);
+    }
+
+    /**
+     * Like above, with intent already resolved to resolveInfo, which may be null.
+     */
+    private ShortcutInfo getShortcutInfo(PackageManager manager, Intent intent,
+            ResolveInfo resolveInfo, Context context, Cursor c, int iconHashIndex,
+            int titleIndex) {
         Bitmap icon = null;
         final ShortcutInfo info = new ShortcutInfo();
 
@@ -1889,7 +2483,6 @@ public class LauncherModel extends BroadcastReceiver {
         // but don't worry about that.  All we're doing with usingFallbackIcon is
         // to avoid saving lots of copies of that in the database, and most apps
         // have icons anyway.
-        final ResolveInfo resolveInfo = manager.resolveActivity(intent, 0);
         if (resolveInfo != null) {
         	//icon = Launcher.getUnReadSmsCountIcon(componentName);
         	
@@ -1899,7 +2492,7 @@ public class LauncherModel extends BroadcastReceiver {
         // the db
         if (icon == null) {
             if (c != null) {
-                icon = getIconFromCursor(c, iconIndex);
+                icon = getIconFromCursor(c, iconHashIndex);
             }
         }
         // the fallback icon
@@ -1912,6 +2505,9 @@ public class LauncherModel extends BroadcastReceiver {
         // from the resource
         if (resolveInfo != null) {
             info.title = resolveInfo.activityInfo.loadLabel(manager);
+            // updateSavedIcon() keeps the stored icon of these up to date.
+            info.onExternalStorage = (resolveInfo.activityInfo.applicationInfo.flags
+                    & android.content.pm.ApplicationInfo.FLAG_EXTERNAL_STORAGE) != 0;
         }
         // from the db
         if (info.title == null) {
@@ -1931,7 +2527,7 @@ public class LauncherModel extends BroadcastReceiver {
      * Make an ShortcutInfo object for a shortcut that isn't an application.
      */
     private ShortcutInfo getShortcutInfo(Cursor c, Context context,
-            int iconTypeIndex, int iconPackageIndex, int iconResourceIndex, int iconIndex,
+            int iconTypeIndex, int iconPackageIndex, int iconResourceIndex, int iconHashIndex,
             int titleIndex) {
 
         Bitmap icon = null;
@@ -1961,7 +2557,7 @@ public class LauncherModel extends BroadcastReceiver {
             }
             // the db
             if (icon == null) {
-                icon = getIconFromCursor(c, iconIndex);
+                icon = getIconFromCursor(c, iconHashIndex);
             }
             // the fallback icon
             if (icon == null) {
@@ -1970,7 +2566,7 @@ public class LauncherModel extends BroadcastReceiver {
             }
             break;
         case LauncherSettings.Favorites.ICON_TYPE_BITMAP:
-            icon = getIconFromCursor(c, iconIndex);
+            icon = getIconFromCursor(c, iconHashIndex);
             if (icon == null) {
                 icon = getFallbackIcon();
                 info.customIcon = false;
@@ -2077,16 +2673,34 @@ public class LauncherModel extends BroadcastReceiver {
         return info;
     }
 
-    public Bitmap getIconFromCursor(Cursor c, int iconIndex) {
+    /**
+     * Fetch the icon stored for the row c is on.  Only called once there is no live icon,
+     * so the bitmaps stay out of the workspace query.
+     */
+    public Bitmap getIconFromCursor(Cursor c, int iconHashIndex) {
         if (false) {
             Log.d(TAG, "getIconFromCursor app="
                     + c.getString(c.getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE)));
         }
-        byte[] data = c.getBlob(iconIndex);
+        if (c.isNull(iconHashIndex)) {
+            return null;
+        }
+        final Cursor icons = mApp.getContentResolver().query(
+                LauncherSettings.Icons.CONTENT_URI, new String[] { LauncherSettings.Icons.ICON },
+                LauncherSettings.Icons.HASH + "=" + c.getLong(iconHashIndex), null, null);
+        if (icons == null) {
+            return null;
+        }
         try {
+            if (!icons.moveToFirst()) {
+                return null;
+            }
+            byte[] data = icons.getBlob(0);
             return BitmapFactory.decodeByteArray(data, 0, data.length);
         } catch (Exception e) {
             return null;
+        } finally {
+            icons.close();
         }
     }
 
@@ -2146,6 +2760,343 @@ public class LauncherModel extends BroadcastReceiver {
         return info;
     }
 
+    /**
+     * What one pass over the favorites table looks up more than once: the intents parsed
+     * from each distinct uri string, and which activity each launcher component resolves to.
+     */
+    private static class LoadCache {
+        private final HashMap<String, Intent> mIntents = new HashMap<String, Intent>();
+        // Every launchable activity, by component.  null to resolve row by row.
+        private HashMap<ComponentName, ResolveInfo> mActivities;
+
+        LoadCache(PackageManager manager, boolean resolveAll) {
+            if (resolveAll) {
+                final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+                mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+                final List<ResolveInfo> apps = manager.queryIntentActivities(mainIntent, 0);
+                mActivities = new HashMap<ComponentName, ResolveInfo>(apps.size());
+                for (ResolveInfo info : apps) {
+                    mActivities.put(new ComponentName(info.activityInfo.applicationInfo.packageName,
+                            info.activityInfo.name), info);
+                }
+            }
+        }
+
+        /**
+         * @return a new Intent for uri, or null if it can't be parsed.
+         */
+        Intent parseIntent(String uri) {
+            if (uri == null) {
+                return null;
+            }
+            Intent intent = mIntents.get(uri);
+            if (intent == null && !mIntents.containsKey(uri)) {
+                try {
+                    intent = Intent.parseUri(uri, 0);
+                } catch (URISyntaxException e) {
+                    intent = null;
+                }
+                mIntents.put(uri, intent);
+            }
+            // Items hang on to their intents, so they can't share them.
+            return intent != null ? new Intent(intent) : null;
+        }
+
+        ResolveInfo resolveActivity(PackageManager manager, Intent intent) {
+            if (mActivities != null) {
+                final ResolveInfo info = mActivities.get(intent.getComponent());
+                if (info != null) {
+                    return info;
+                }
+            }
+            // Not a launcher activity, or we didn't look them all up.
+            return manager.resolveActivity(intent, 0);
+        }
+    }
+
+    /**
+     * Column indexes of a cursor over the favorites table.
+     */
+    private static class FavoritesColumns {
+        // Everything but the icon bitmaps, which are fetched one by one if they're needed.
+        static final String[] PROJECTION = new String[] {
+            LauncherSettings.Favorites._ID,
+            LauncherSettings.Favorites.INTENT,
+            LauncherSettings.Favorites.TITLE,
+            LauncherSettings.Favorites.ICON_TYPE,
+            LauncherSettings.Favorites.ICON_HASH,
+            LauncherSettings.Favorites.ICON_PACKAGE,
+            LauncherSettings.Favorites.ICON_RESOURCE,
+            LauncherSettings.Favorites.CONTAINER,
+            LauncherSettings.Favorites.ITEM_TYPE,
+            LauncherSettings.Favorites.APPWIDGET_ID,
+            LauncherSettings.Favorites.SCREEN,
+            LauncherSettings.Favorites.CELLX,
+            LauncherSettings.Favorites.CELLY,
+            LauncherSettings.Favorites.SPANX,
+            LauncherSettings.Favorites.SPANY,
+            LauncherSettings.Favorites.URI,
+            LauncherSettings.Favorites.DISPLAY_MODE,
+            LauncherSettings.Favorites.QS_EXT_PARAM,
+        };
+
+        final int id;
+        final int intent;
+        final int title;
+        final int iconType;
+        final int iconHash;
+        final int iconPackage;
+        final int iconResource;
+        final int container;
+        final int itemType;
+        final int appWidgetId;
+        final int screen;
+        final int cellX;
+        final int cellY;
+        final int spanX;
+        final int spanY;
+        final int uri;
+        final int displayMode;
+        final int qsExtParam;
+
+        FavoritesColumns(Cursor c) {
+            id = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
+            intent = c.getColumnIndexOrThrow(LauncherSettings.Favorites.INTENT);
+            title = c.getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE);
+            iconType = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_TYPE);
+            iconHash = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_HASH);
+            iconPackage = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_PACKAGE);
+            iconResource = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_RESOURCE);
+            container = c.getColumnIndexOrThrow(LauncherSettings.Favorites.CONTAINER);
+            itemType = c.getColumnIndexOrThrow(LauncherSettings.Favorites.ITEM_TYPE);
+            appWidgetId = c.getColumnIndexOrThrow(LauncherSettings.Favorites.APPWIDGET_ID);
+            screen = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SCREEN);
+            cellX = c.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLX);
+            cellY = c.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLY);
+            spanX = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SPANX);
+            spanY = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SPANY);
+            uri = c.getColumnIndexOrThrow(LauncherSettings.Favorites.URI);
+            displayMode = c.getColumnIndexOrThrow(LauncherSettings.Favorites.DISPLAY_MODE);
+            qsExtParam = c.getColumnIndexOrThrow(LauncherSettings.Favorites.QS_EXT_PARAM);
+        }
+    }
+
+    /**
+     * A hash of every column c was queried with but _id, which changes whenever the row
+     * is moved, retitled or given another icon.  The icon itself is not queried; its
+     * iconHash stands in for it.
+     */
+    private static long rowMarker(Cursor c, FavoritesColumns columns) {
+        long marker = 0xcbf29ce484222325L;
+        final int N = c.getColumnCount();
+        for (int i=0; i<N; i++) {
+            if (i != columns.id) {
+                final String value = c.getString(i);
+                marker = (marker ^ (value != null ? value.hashCode() : 0)) * 0x100000001b3L;
+            }
+        }
+        return marker;
+    }
+
+    private static boolean isQsFuncItem(ItemInfo item) {
+        return item.itemType > LauncherSettings.Favorites.ITEM_TYPE_QS_FUNC_START
+                && item.itemType < LauncherSettings.Favorites.ITEM_TYPE_QS_FUNC_END;
+    }
+
+    /**
+     * Build the item for the row c is on.  User and live folders come from folders,
+     * where they may already have been made as placeholders.
+     *
+     * @return null if the row can't be shown.  Rows that should go away for good are
+     *     deleted or added to itemsToRemove.
+     */
+    private ItemInfo loadItem(Context context, PackageManager manager, AppWidgetManager widgets,
+            boolean isSafeMode, Cursor c, FavoritesColumns col, LoadCache cache,
+            HashMap<Long, FolderInfo> folders, ArrayList<Long> itemsToRemove) {
+        final int itemType = c.getInt(col.itemType);
+        final long id = c.getLong(col.id);
+        ShortcutInfo info;
+        String intentDescription;
+        Intent intent;
+
+        switch (itemType) {
+        case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+        case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+            intentDescription = c.getString(col.intent);
+            intent = cache.parseIntent(intentDescription);
+            if (intent == null) {
+                return null;
+            }
+
+            if (itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                info = intent.getComponent() == null ? null : getShortcutInfo(manager, intent,
+                        cache.resolveActivity(manager, intent), context, c, col.iconHash,
+                        col.title);
+            } else {
+                info = getShortcutInfo(c, context, col.iconType, col.iconPackage,
+                        col.iconResource, col.iconHash, col.title);
+            }
+
+            if (info == null) {
+                // Failed to load the shortcut, probably because the
+                // activity manager couldn't resolve it (maybe the app
+                // was uninstalled), or the db row was somehow screwed up.
+                // Delete it.
+                Log.e(TAG, "Error loading shortcut " + id + ", removing it");
+                itemsToRemove.add(id);
+                return null;
+            }
+
+            info.intent = intent;
+            info.id = id;
+            info.container = c.getInt(col.container);
+            info.screen = c.getInt(col.screen);
+            info.cellX = c.getInt(col.cellX);
+            info.cellY = c.getInt(col.cellY);
+            info.qsExtParam = c.getInt(col.qsExtParam);
+
+            // After the fields above, since it may write the row back.
+            updateSavedIcon(context, info, c, col.iconHash);
+            return info;
+
+        case LauncherSettings.Favorites.ITEM_TYPE_USER_FOLDER:
+            UserFolderInfo folderInfo = findOrMakeUserFolder(folders, id);
+
+            folderInfo.title = c.getString(col.title);
+            folderInfo.id = id;
+            folderInfo.container = c.getInt(col.container);
+            folderInfo.screen = c.getInt(col.screen);
+            folderInfo.cellX = c.getInt(col.cellX);
+            folderInfo.cellY = c.getInt(col.cellY);
+            folderInfo.qsExtParam = c.getInt(col.qsExtParam);
+            return folderInfo;
+
+        case LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER:
+            Uri uri = Uri.parse(c.getString(col.uri));
+
+            // Make sure the live folder exists
+            final ProviderInfo providerInfo =
+                    manager.resolveContentProvider(uri.getAuthority(), 0);
+
+            if (providerInfo == null && !isSafeMode) {
+                itemsToRemove.add(id);
+                return null;
+            }
+
+            LiveFolderInfo liveFolderInfo = findOrMakeLiveFolder(folders, id);
+
+            // A live folder might not have a base intent
+            intent = cache.parseIntent(c.getString(col.intent));
+
+            liveFolderInfo.title = c.getString(col.title);
+            liveFolderInfo.id = id;
+            liveFolderInfo.uri = uri;
+            liveFolderInfo.container = c.getInt(col.container);
+            liveFolderInfo.screen = c.getInt(col.screen);
+            liveFolderInfo.cellX = c.getInt(col.cellX);
+            liveFolderInfo.cellY = c.getInt(col.cellY);
+            liveFolderInfo.baseIntent = intent;
+            liveFolderInfo.displayMode = c.getInt(col.displayMode);
+
+            loadLiveFolderIcon(context, c, col.iconType, col.iconPackage,
+                    col.iconResource, liveFolderInfo);
+            return liveFolderInfo;
+
+        case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+            // Read all Launcher-specific widget details
+            int appWidgetId = c.getInt(col.appWidgetId);
+
+            final AppWidgetProviderInfo provider = widgets.getAppWidgetInfo(appWidgetId);
+
+            if (!isSafeMode && (provider == null || provider.provider == null ||
+                    provider.provider.getPackageName() == null)) {
+                Log.e(TAG, "Deleting widget that isn't installed anymore: id="
+                        + id + " appWidgetId=" + appWidgetId);
+                itemsToRemove.add(id);
+                return null;
+            }
+
+            final int container = c.getInt(col.container);
+            if (container != LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                Log.e(TAG, "Widget found where container "
+                        + "!= CONTAINER_DESKTOP -- ignoring!");
+                return null;
+            }
+
+            LauncherAppWidgetInfo appWidgetInfo = new LauncherAppWidgetInfo(appWidgetId);
+            appWidgetInfo.id = id;
+            appWidgetInfo.container = container;
+            appWidgetInfo.screen = c.getInt(col.screen);
+            appWidgetInfo.cellX = c.getInt(col.cellX);
+            appWidgetInfo.cellY = c.getInt(col.cellY);
+            appWidgetInfo.spanX = c.getInt(col.spanX);
+            appWidgetInfo.spanY = c.getInt(col.spanY);
+            return appWidgetInfo;
+
+        default:
+            if (itemType > LauncherSettings.Favorites.ITEM_TYPE_QS_FUNC_START
+                    && itemType < LauncherSettings.Favorites.ITEM_TYPE_QS_FUNC_END) {
+                info = getShortcutInfo(c, context, col.iconType, col.iconPackage,
+                        col.iconResource, col.iconHash, col.title);
+                if (info == null) {
+                    return null;
+                }
+
+                String resourceName = c.getString(col.iconResource);
+                if (!TextUtils.isEmpty(resourceName)) {
+                    info.iconResource = new Intent.ShortcutIconResource();
+                    info.iconResource.packageName = c.getString(col.iconPackage);
+                    info.iconResource.resourceName = resourceName;
+                }
+
+                info.itemType = itemType;
+                info.id = id;
+                info.container = c.getInt(col.container);
+                info.screen = c.getInt(col.screen);
+                info.cellX = c.getInt(col.cellX);
+                info.cellY = c.getInt(col.cellY);
+                info.qsExtParam = c.getInt(col.qsExtParam);
+                return info;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Delete rows for things that aren't installed anymore, without notifying anyone.
+     */
+    private static void removeDeadItems(ContentResolver contentResolver,
+            ArrayList<Long> itemsToRemove) {
+        if (itemsToRemove.size() > 0) {
+            flushPendingWrites();
+            ContentProviderClient client = contentResolver.acquireContentProviderClient(
+                            LauncherSettings.Favorites.CONTENT_URI);
+            // Remove dead items, all in one statement
+            final StringBuilder where = new StringBuilder(LauncherSettings.Favorites._ID);
+            where.append(" IN (");
+            boolean first = true;
+            for (long id : itemsToRemove) {
+                if (DEBUG_LOADERS) {
+                    Log.d(TAG, "Removed id = " + id);
+                }
+                if (!first) {
+                    where.append(',');
+                }
+                where.append(id);
+                first = false;
+            }
+            where.append(')');
+            // Don't notify content observers
+            try {
+                client.delete(LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
+                        where.toString(), null);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Could not remove " + itemsToRemove.size() + " dead items");
+            }
+            client.release();
+        }
+    }
+
     private static void loadLiveFolderIcon(Context context, Cursor c, int iconTypeIndex,
             int iconPackageIndex, int iconResourceIndex, LiveFolderInfo liveFolderInfo) {
 
@@ -2176,25 +3127,25 @@ public class LauncherModel extends BroadcastReceiver {
         }
     }
 
-    public void updateSavedIcon(Context context, ShortcutInfo info, Cursor c, int iconIndex) {
+    public void updateSavedIcon(Context context, ShortcutInfo info, Cursor c, int iconHashIndex) {
         // If this icon doesn't have a custom icon, check to see
         // what's stored in the DB, and if it doesn't match what
         // we're going to show, store what we are going to show back
         // into the DB.  We do this so when we're loading, if the
         // package manager can't find an icon (for example because
         // the app is on SD) then we can use that instead.
-        if (!info.customIcon && !info.usingFallbackIcon) {
+        //
+        // onAddToDatabase() only stores the icons of apps on external storage, anything
+        // else would never match and be written back on every load.
+        if (!info.customIcon && !info.usingFallbackIcon && info.onExternalStorage) {
             boolean needSave;
-            byte[] data = c.getBlob(iconIndex);
-            try {
-                if (data != null) {
-                    Bitmap saved = BitmapFactory.decodeByteArray(data, 0, data.length);
-                    Bitmap loaded = info.getIcon(mIconCache);
-                    needSave = !saved.sameAs(loaded);
-                } else {
-                    needSave = true;
-                }
-            } catch (Exception e) {
+            if (!c.isNull(iconHashIndex)) {
+                // Comparing hashes; the stored bitmap isn't even in the cursor.  The live
+                // one is hashed at most once, by the icon cache.
+                Bitmap loaded = info.getIcon(mIconCache);
+                needSave = c.getLong(iconHashIndex) != mIconCache.getIconHash(
+                        info.intent != null ? info.intent.getComponent() : null, loaded);
+            } else {
                 needSave = true;
             }
             if (needSave) {
@@ -2263,6 +3214,10 @@ public class LauncherModel extends BroadcastReceiver {
         ApplicationInfo.dumpApplicationInfoList(TAG, "mAllAppsList.removed", mAllAppsList.removed);
         ApplicationInfo.dumpApplicationInfoList(TAG, "mAllAppsList.modified", mAllAppsList.modified);
         Log.d(TAG, "mItems size=" + mItems.size());
+        if (mIconCache != null) {
+            mIconCache.dumpState(TAG);
+        }
+        mHandler.dumpState(TAG);
         if (mLoaderTask != null) {
             mLoaderTask.dumpState();
         } else {
@@ -21,12 +21,15 @@ import android.appwidget.AppWidgetHost;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.Context;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.content.ComponentName;
 import android.content.ContentUris;
 import android.content.ContentResolver;
+import android.content.OperationApplicationException;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 import android.content.res.TypedArray;
@@ -49,6 +52,8 @@ import android.provider.Settings;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import org.xmlpull.v1.XmlPullParserException;
@@ -69,7 +74,8 @@ public class LauncherProvider extends ContentProvider {
     private static final String DATABASE_NAME = "launcher.db";
     
     //private static final int DATABASE_VERSION = 9;//8;
-    private static final int DATABASE_VERSION = 10; // jz add support qs ext parameter
+    //private static final int DATABASE_VERSION = 10; // jz add support qs ext parameter
+    private static final int DATABASE_VERSION = 11; // icons moved to TABLE_ICONS
 
     public static final String AUTHORITY = "com.android.qshome.settings";
     
@@ -78,6 +84,8 @@ public class LauncherProvider extends ContentProvider {
     
     public static final String TABLE_APPS = "qsapplist";
 
+    public static final String TABLE_ICONS = "icons";
+
     /**
      * {@link Uri} triggered at any registered {@link android.database.ContentObserver} when
      * {@link AppWidgetHost#deleteHost()} is called during database creation.
@@ -88,6 +96,28 @@ public class LauncherProvider extends ContentProvider {
     
     private SQLiteOpenHelper mOpenHelper;
 
+    /**
+     * State of the applyBatch() running on this thread, if any.  Notifications are held
+     * back until its transaction commits.
+     */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    private static class Batch {
+        // What to notify once we commit, per table.  null once a table has had rows
+        // changed through more than one uri.
+        final HashMap<String, Uri> notifyUris = new HashMap<String, Uri>();
+        // UPDATE_POSITION_SQL, per table, compiled the first time it is needed.
+        final HashMap<String, SQLiteStatement> positionUpdates =
+                new HashMap<String, SQLiteStatement>();
+    }
+
+    // The update every drag and re-sort makes, for each item moved.
+    private static final String UPDATE_POSITION_SQL = " SET " +
+            LauncherSettings.Favorites.CONTAINER + "=?," +
+            LauncherSettings.Favorites.SCREEN + "=?," +
+            LauncherSettings.Favorites.CELLX + "=?," +
+            LauncherSettings.Favorites.CELLY + "=? WHERE _id=?";
+
     @Override
     public boolean onCreate() {
         mOpenHelper = new DatabaseHelper(getContext());
@@ -124,6 +154,9 @@ public class LauncherProvider extends ContentProvider {
         SqlArguments args = new SqlArguments(uri);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (!TABLE_ICONS.equals(args.table)) {
+            initialValues = storeIcon(db, initialValues);
+        }
         final long rowId = db.insert(args.table, null, initialValues);
         if (rowId <= 0) return null;
 
@@ -142,7 +175,9 @@ public class LauncherProvider extends ContentProvider {
         try {
             int numValues = values.length;
             for (int i = 0; i < numValues; i++) {
-                if (db.insert(args.table, null, values[i]) < 0) return 0;
+                final ContentValues row = TABLE_ICONS.equals(args.table)
+                        ? values[i] : storeIcon(db, values[i]);
+                if (db.insert(args.table, null, row) < 0) return 0;
             }
             db.setTransactionSuccessful();
         } finally {
@@ -169,19 +204,146 @@ public class LauncherProvider extends ContentProvider {
         SqlArguments args = new SqlArguments(uri, selection, selectionArgs);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int count = db.update(args.table, values, args.where, args.args);
+        if (!TABLE_ICONS.equals(args.table)) {
+            values = storeIcon(db, values);
+        }
+        int count;
+        final Batch batch = mBatch.get();
+        if (batch != null && selection == null && isPositionUpdate(uri, values)) {
+            count = updatePosition(db, batch, args.table, ContentUris.parseId(uri), values);
+        } else {
+            count = db.update(args.table, values, args.where, args.args);
+        }
         if (count > 0) sendNotify(uri);
 
         return count;
     }
 
+    /**
+     * Apply operations in a single transaction, sending one notification per table
+     * when it commits rather than one per row.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final Batch batch = new Batch();
+        final ContentProviderResult[] results;
+
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatch.set(null);
+            for (SQLiteStatement statement : batch.positionUpdates.values()) {
+                statement.close();
+            }
+        }
+
+        for (String table : batch.notifyUris.keySet()) {
+            Uri uri = batch.notifyUris.get(table);
+            if (uri == null) {
+                uri = Uri.parse("content://" + AUTHORITY + "/" + table);
+            }
+            sendNotify(uri);
+        }
+        return results;
+    }
+
+    /**
+     * @return true if this is the container/screen/cellX/cellY update of a single row
+     * that moving an item makes.
+     */
+    private static boolean isPositionUpdate(Uri uri, ContentValues values) {
+        return uri.getPathSegments().size() == 2
+                && values.size() == 4
+                && values.getAsLong(LauncherSettings.Favorites.CONTAINER) != null
+                && values.getAsLong(LauncherSettings.Favorites.SCREEN) != null
+                && values.getAsLong(LauncherSettings.Favorites.CELLX) != null
+                && values.getAsLong(LauncherSettings.Favorites.CELLY) != null;
+    }
+
+    private static int updatePosition(SQLiteDatabase db, Batch batch, String table, long id,
+            ContentValues values) {
+        SQLiteStatement statement = batch.positionUpdates.get(table);
+        if (statement == null) {
+            statement = db.compileStatement("UPDATE " + table + UPDATE_POSITION_SQL);
+            batch.positionUpdates.put(table, statement);
+        }
+        statement.bindLong(1, values.getAsLong(LauncherSettings.Favorites.CONTAINER));
+        statement.bindLong(2, values.getAsLong(LauncherSettings.Favorites.SCREEN));
+        statement.bindLong(3, values.getAsLong(LauncherSettings.Favorites.CELLX));
+        statement.bindLong(4, values.getAsLong(LauncherSettings.Favorites.CELLY));
+        statement.bindLong(5, id);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * Move the icon bitmap in values, if there is one, into TABLE_ICONS, leaving its
+     * ICON_HASH in the row instead.  Rows showing the same pixels share one copy.
+     *
+     * @return values without ICON, or values itself if it had no ICON.
+     */
+    private static ContentValues storeIcon(SQLiteDatabase db, ContentValues values) {
+        if (values == null || !values.containsKey(Favorites.ICON)) {
+            return values;
+        }
+        final byte[] data = values.getAsByteArray(Favorites.ICON);
+        values = new ContentValues(values);
+        values.remove(Favorites.ICON);
+        if (data == null) {
+            values.putNull(Favorites.ICON_HASH);
+            return values;
+        }
+
+        Long hash = values.getAsLong(Favorites.ICON_HASH);
+        if (hash == null) {
+            // Written by someone who didn't hash it, e.g. an older format being converted.
+            final Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+            if (bitmap == null) {
+                values.putNull(Favorites.ICON_HASH);
+                return values;
+            }
+            hash = ItemInfo.hashBitmap(bitmap);
+            bitmap.recycle();
+            values.put(Favorites.ICON_HASH, hash);
+        }
+
+        final ContentValues icon = new ContentValues(2);
+        icon.put(LauncherSettings.Icons.HASH, hash);
+        icon.put(LauncherSettings.Icons.ICON, data);
+        db.insertWithOnConflict(TABLE_ICONS, null, icon, SQLiteDatabase.CONFLICT_IGNORE);
+        return values;
+    }
+
     private void sendNotify(Uri uri) {
         String notify = uri.getQueryParameter(PARAMETER_NOTIFY);
         if (notify == null || "true".equals(notify)) {
+            final Batch batch = mBatch.get();
+            if (batch != null) {
+                deferNotify(batch, uri);
+                return;
+            }
             getContext().getContentResolver().notifyChange(uri, null);
         }
     }
 
+    private static void deferNotify(Batch batch, Uri uri) {
+        final String table = uri.getPathSegments().get(0);
+        if (!batch.notifyUris.containsKey(table)) {
+            batch.notifyUris.put(table, uri);
+        } else {
+            final Uri pending = batch.notifyUris.get(table);
+            if (pending != null && !pending.equals(uri)) {
+                // Several rows changed, tell observers to look at the whole table.
+                batch.notifyUris.put(table, null);
+            }
+        }
+    }
+
     private static class DatabaseHelper extends SQLiteOpenHelper {
         private static final String TAG_FAVORITES = LauncherSettings.Favorites.TAG_FAVORITES;//"favorites";
         private static final String TAG_FAVORITE = LauncherSettings.Favorites.TAG_FAVORITE;//"favorite";
@@ -234,7 +396,8 @@ public class LauncherProvider extends ContentProvider {
                     "icon BLOB," +
                     "uri TEXT," +
                     "displayMode INTEGER," +
-                    "qsExtParam INTEGER NOT NULL DEFAULT 0" +
+                    "qsExtParam INTEGER NOT NULL DEFAULT 0," +
+                    "iconHash INTEGER" +
                     ");");
             
             // jz
@@ -257,9 +420,12 @@ public class LauncherProvider extends ContentProvider {
                     "icon BLOB," +
                     "uri TEXT," +
                     "displayMode INTEGER," +
-                    "qsExtParam INTEGER NOT NULL DEFAULT 0" +
+                    "qsExtParam INTEGER NOT NULL DEFAULT 0," +
+                    "iconHash INTEGER" +
                     ");");
 
+            createIconsTable(db);
+
             // Database was just created, so wipe any previous widgets
             if (mAppWidgetHost != null) {
                 mAppWidgetHost.deleteHost();
@@ -272,6 +438,28 @@ public class LauncherProvider extends ContentProvider {
             }
         }
 
+        private static void createIconsTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_ICONS + " (" +
+                    "hash INTEGER PRIMARY KEY," +
+                    "icon BLOB" +
+                    ");");
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            if (db.isReadOnly()) {
+                return;
+            }
+            // Rows that were deleted or changed their icon leave the old one behind.
+            try {
+                db.execSQL("DELETE FROM " + TABLE_ICONS + " WHERE hash NOT IN (" +
+                        "SELECT iconHash FROM " + TABLE_FAVORITES + " WHERE iconHash NOT NULL" +
+                        " UNION SELECT iconHash FROM " + TABLE_APPS + " WHERE iconHash NOT NULL)");
+            } catch (SQLException ex) {
+                Log.w(TAG, "Problem while dropping unused icons", ex);
+            }
+        }
+
         private boolean convertDatabase(SQLiteDatabase db) {
             if (LOGD) Log.d(TAG, "converting database from an older format, but not onUpgrade");
             boolean converted = false;
@@ -354,7 +542,7 @@ public class LauncherProvider extends ContentProvider {
             try {
                 int numValues = rows.length;
                 for (i = 0; i < numValues; i++) {
-                    if (db.insert(TABLE_FAVORITES, null, rows[i]) < 0) {
+                    if (db.insert(TABLE_FAVORITES, null, storeIcon(db, rows[i])) < 0) {
                         return 0;
                     } else {
                         total++;
@@ -440,12 +628,21 @@ public class LauncherProvider extends ContentProvider {
                 version = 8;
             }
 
+            if (version == 10) {
+                // Version 11 moves the icons out of the rows into TABLE_ICONS.  Anything
+                // older than 10 is wiped below anyway.
+                if (moveIconsToIconsTable(db)) {
+                    version = 11;
+                }
+            }
+
             if (version != DATABASE_VERSION) {
                 Log.w(TAG, "Destroying all old data.");
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
                 
                 if(version > 8)
                 	db.execSQL("DROP TABLE IF EXISTS " + TABLE_APPS);
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_ICONS);
                 
                 onCreate(db);
             }
@@ -518,6 +715,44 @@ public class LauncherProvider extends ContentProvider {
             return true;
         }
 
+        private boolean moveIconsToIconsTable(SQLiteDatabase db) {
+            db.beginTransaction();
+            try {
+                createIconsTable(db);
+                moveIcons(db, TABLE_FAVORITES);
+                moveIcons(db, TABLE_APPS);
+                db.setTransactionSuccessful();
+            } catch (SQLException ex) {
+                // Old version remains, which means we wipe old data
+                Log.e(TAG, ex.getMessage(), ex);
+                return false;
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        }
+
+        private static void moveIcons(SQLiteDatabase db, String table) {
+            db.execSQL("ALTER TABLE " + table + " ADD COLUMN iconHash INTEGER;");
+
+            Cursor c = null;
+            try {
+                c = db.rawQuery("SELECT _id, icon FROM " + table + " WHERE icon NOT NULL", null);
+                final ContentValues values = new ContentValues();
+                while (c.moveToNext()) {
+                    values.clear();
+                    values.put(Favorites.ICON, c.getBlob(1));
+                    final ContentValues row = storeIcon(db, values);
+                    row.putNull(Favorites.ICON);
+                    db.update(table, row, "_id=" + c.getLong(0), null);
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+        }
+
         private void normalizeIcons(SQLiteDatabase db) {
             Log.d(TAG, "normalizing icons");
 
@@ -43,6 +43,7 @@ public class UninstallShortcutReceiver extends BroadcastReceiver {
         boolean duplicate = data.getBooleanExtra(Launcher.EXTRA_SHORTCUT_DUPLICATE, true);
 
         if (intent != null && name != null) {
+            LauncherModel.flushPendingWrites();
             final ContentResolver cr = context.getContentResolver();
             Cursor c = cr.query(LauncherSettings.Favorites.CONTENT_URI,
                 new String[] { LauncherSettings.Favorites._ID, LauncherSettings.Favorites.INTENT },
@@ -1,7 +1,7 @@
 package com.android.qshome.ctrl;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 
 import com.android.qshome.AllAppsView;
 import com.android.qshome.Launcher;
@@ -15,18 +15,18 @@ import com.android.qshome.model.UserFolderInfo;
 import com.android.qshome.util.LauncherSettings;
 import com.android.qshome.util.QsLog;
 
-import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.util.AttributeSet;
+import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
@@ -89,6 +89,13 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
     private int mOverscrollDistance; 
     private OnLongClickListener mLongClickListener;
     
+    // All the apps, in the order they are shown. The page and slot of an app
+    // follow from its index, only the pages near the current one have views.
+    private final ArrayList<ApplicationInfo> mApps = new ArrayList<ApplicationInfo>();
+    private final SparseBooleanArray mBoundPages = new SparseBooleanArray();
+    private final ArrayList<View> mRecycledViews = new ArrayList<View>();
+    private int mItemsPerPage;
+    
     private static class WorkspaceOvershootInterpolator implements Interpolator {
         private static final float DEFAULT_TENSION = 1.3f;
 
@@ -148,6 +155,13 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
         mOverscrollDistance = configuration.getScaledOverscrollDistance();
     }
     
+    @Override
+    protected void onFinishInflate() {
+    	super.onFinishInflate();
+    	if(getChildCount() > 0)
+    		mItemsPerPage = ((PageGridLayout) getChildAt(0)).getMaxItemsCount();
+    }
+    
 //    /**
 //     * @return True is long presses are still allowed for the current touch
 //     */
@@ -195,7 +209,8 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
         } else if (mNextScreen != Workspace.INVALID_SCREEN) {
             mCurrentScreen = Math.max(0, Math.min(mNextScreen, getChildCount() - 1));
             mNextScreen = Workspace.INVALID_SCREEN;
-            //clearChildrenCache();
+            releaseFarPages();
+            clearChildrenCache();
         }
     }
         
@@ -340,6 +355,7 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
                 boolean xMoved = xDiff > touchSlop;
                 if (xMoved) {
                     mTouchState = Workspace.TOUCH_STATE_SCROLLING;
+                    enableChildrenCache(mCurrentScreen - 1, mCurrentScreen + 1);
                 }
             }
                 break;
@@ -388,6 +404,7 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
     private void snapToScreen(int whichScreen, int velocity, boolean settle) {
         whichScreen = Math.max(0, Math.min(whichScreen, super.getChildCount() - 1));
         
+        bindPagesNear(whichScreen, false);
         enableChildrenCache(mCurrentScreen, whichScreen);
 
         mNextScreen = whichScreen;
@@ -442,18 +459,28 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
         fromScreen = Math.max(fromScreen, 0);
         toScreen = Math.min(toScreen, count - 1);
 
+        // Pages out of reach hand their snapshot bitmaps to the ones coming in.
+        for (int i = 0; i < count; i++) {
+            final PageGridLayout layout = (PageGridLayout) getChildAt(i);
+            if (i < fromScreen || i > toScreen) {
+                layout.releaseSnapshot();
+            }
+        }
         for (int i = fromScreen; i <= toScreen; i++) {
             final PageGridLayout layout = (PageGridLayout) getChildAt(i);
-            layout.setChildrenDrawnWithCacheEnabled(true);
-            layout.setChildrenDrawingCacheEnabled(true);
+            layout.setSnapshotEnabled(true);
         }
     }
 
+    /**
+     * Goes back to drawing the pages' children directly. Their snapshots are
+     * kept for the next swipe.
+     */
     public void clearChildrenCache() {
         final int count = getChildCount();
         for (int i = 0; i < count; i++) {
             final PageGridLayout layout = (PageGridLayout) getChildAt(i);
-            layout.setChildrenDrawnWithCacheEnabled(false);
+            layout.setSnapshotEnabled(false);
         }
     }
     
@@ -462,6 +489,8 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
     			mPageLayoutResource, this, false);
     	layout.setClickable(true);
         addView(layout, -1);
+        if(mItemsPerPage <= 0)
+        	mItemsPerPage = layout.getMaxItemsCount();
         
         if(mQsWorkspaceCallback != null)
         	mQsWorkspaceCallback.onPageCountChanged(getScreenCount());
@@ -570,6 +599,7 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
         
         favorite.setOnClickListener(mLauncher);
         favorite.setOnLongClickListener(mLauncher);
+        mLauncher.applyBadge(favorite, info);
 
         return favorite;
     }
@@ -579,11 +609,141 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
 
         info.iconBitmap.setDensity(Bitmap.DENSITY_NONE);
         
-        favorite.setCompoundDrawablesWithIntrinsicBounds(null,
-                new FastBitmapDrawable(info.iconBitmap),
-                null, null);
+        // Keep the drawable of a recycled view, it only needs the new bitmap.
+        Drawable icon = favorite.getCompoundDrawables()[1];
+        if(icon instanceof FastBitmapDrawable){
+        	((FastBitmapDrawable) icon).setBitmap(info.iconBitmap);
+        } else {
+        	icon = new FastBitmapDrawable(info.iconBitmap);
+        }
+        favorite.setCompoundDrawablesWithIntrinsicBounds(null, icon, null, null);
         favorite.setText(info.title);
         favorite.setTag(info);
+        mLauncher.applyBadge(favorite, info);
+	}
+	
+	private View obtainApplicationView(ApplicationInfo info, ViewGroup parent){
+		final int size = mRecycledViews.size();
+		if(size == 0)
+			return createApplicationView(info, parent);
+		
+		final View v = mRecycledViews.remove(size - 1);
+		updateApplicationViewInfo(v, info);
+		return v;
+	}
+	
+	private void recycleView(View v){
+		v.setTag(null);
+		mRecycledViews.add(v);
+	}
+	
+	private boolean isPageInReach(int page){
+		return Math.abs(page - mCurrentScreen) <= 1
+				|| (mNextScreen != Workspace.INVALID_SCREEN && Math.abs(page - mNextScreen) <= 1);
+	}
+	
+	/**
+	 * Gives the page the views for its apps, reusing the ones it has. A view
+	 * that already shows the right app is left alone unless force is set.
+	 */
+	private void bindPage(int page, boolean force){
+		final PageGridLayout layout = (PageGridLayout) getChildAt(page);
+		final int start = page * mItemsPerPage;
+		final int count = Math.max(0, Math.min(mApps.size() - start, mItemsPerPage));
+		
+		int childCount = layout.getChildCount();
+		for(int i = childCount - 1; i >= count; i--){
+			final View v = layout.getChildAt(i);
+			layout.removeViewInLayout(v);
+			recycleView(v);
+		}
+		childCount = Math.min(childCount, count);
+		
+		for(int i = 0; i < count; i++){
+			final ApplicationInfo info = mApps.get(start + i);
+			if(i < childCount){
+				final View v = layout.getChildAt(i);
+				if(force || v.getTag() != info)
+					updateApplicationViewInfo(v, info);
+			} else {
+				layout.addItem(obtainApplicationView(info, layout));
+			}
+		}
+		
+		mBoundPages.put(page, true);
+		layout.requestLayout();
+	}
+	
+	private void unbindPage(int page){
+		final PageGridLayout layout = (PageGridLayout) getChildAt(page);
+		final int count = layout.getChildCount();
+		for(int i = 0; i < count; i++){
+			recycleView(layout.getChildAt(i));
+		}
+		layout.removeAllViewsInLayout();
+		mBoundPages.delete(page);
+	}
+	
+	private void bindPagesNear(int screen, boolean force){
+		if(mItemsPerPage <= 0)
+			return;
+		
+		final int last = Math.min(screen + 1, getChildCount() - 1);
+		for(int i = Math.max(screen - 1, 0); i <= last; i++){
+			if(force || !mBoundPages.get(i))
+				bindPage(i, force);
+		}
+	}
+	
+	private void releaseFarPages(){
+		final int count = getChildCount();
+		for(int i = 0; i < count; i++){
+			if(!isPageInReach(i) && ((ViewGroup) getChildAt(i)).getChildCount() > 0)
+				unbindPage(i);
+		}
+	}
+	
+	/**
+	 * Makes as many pages as the apps need and keeps the current screen on one
+	 * of them.
+	 */
+	private void updatePageCount(){
+		if(getChildCount() == 0)
+			addNewPage();
+		
+		final int needed = Math.max(1, (mApps.size() + mItemsPerPage - 1) / mItemsPerPage);
+		while(getChildCount() < needed)
+			addNewPage();
+		
+		if(getChildCount() > needed){
+			for(int i = getChildCount() - 1; i >= needed; i--){
+				unbindPage(i);
+				removeViewAt(i);
+			}
+			
+			if(mCurrentScreen >= needed){
+				mCurrentScreen = needed - 1;
+				scrollTo(mCurrentScreen * getWidth(), 0);
+			}
+			if(mNextScreen >= needed)
+				mNextScreen = needed - 1;
+			
+			if(mQsWorkspaceCallback != null)
+				mQsWorkspaceCallback.onPageCountChanged(getScreenCount());
+		}
+	}
+	
+	private void onAppsChanged(boolean force){
+		updatePageCount();
+		
+		// Pages out of reach are let go rather than rebound.
+		mBoundPages.clear();
+		releaseFarPages();
+		bindPagesNear(mCurrentScreen, force);
+		if(mNextScreen != Workspace.INVALID_SCREEN)
+			bindPagesNear(mNextScreen, force);
+		
+		invalidatePages();
 	}
     
     public void invalidatePages(){
@@ -594,16 +754,6 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
     	getChildAt(screen).invalidate();
     }
     
-    private boolean addAppInScreen(int nScreen, View shortcut){
-    	final PageGridLayout cellLayout = (PageGridLayout) getChildAt(nScreen);
-    	
-    	if(cellLayout.addItem(shortcut) < 0){
-    		return false;
-    	}
-    		
-    	return true;
-    }
-
     public void onDropCompleted(View target, DragObject d, boolean success) {
     }
     
@@ -635,30 +785,16 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
     	if(mLauncher == null)
     		return;
     	
+    	final int count = getChildCount();
+    	for(int i = 0; i < count; i++){
+    		unbindPage(i);
+    	}
     	super.removeAllViews();
     	addNewPage();
     	
-    	final int N = list.size();
-    	int nScreen = 0; 
-    	boolean bGoted;
-        for (int i=0; i<N; i++) {
-            final ApplicationInfo item = list.get(i);
-            //final ShortcutInfo shortcutInfo = item.makeShortcut();
-            View shortcut = createApplicationView(item, null);//mLauncher.createShortcut(mShortcutLayoutResource, null, shortcutInfo);
-
-            do{
-            	
-            	if(!(bGoted = addAppInScreen(nScreen, shortcut))){
-            		//QsLog.LogE("AllAppsWorkspace::setApps(0)==nScreen:"+nScreen+"==count:"+mWorkspace.getChildCount());
-	            	nScreen++;
-	            	if(nScreen >= getChildCount()){
-	            		addNewPage();
-	            	}
-	            	//QsLog.LogE("AllAppsWorkspace::setApps(1)==nScreen:"+nScreen+"==count:"+mWorkspace.getChildCount());
-            	}
-	            
-            }while(!bGoted);
-        }
+    	mApps.clear();
+    	mApps.addAll(list);
+    	onAppsChanged(false);
     }
     
     public void reorderApps(){
@@ -666,129 +802,55 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
     }
 
     public void addApps(ArrayList<ApplicationInfo> list) {
-    	final int N = list.size();
-    	int nScreen = 0; 
-    	int nPagesCount = getChildCount();
-    	for (int i=0; i<N; i++) {
-            final ApplicationInfo item = list.get(i);
-            //final ShortcutInfo shortcutInfo = item.makeShortcut();
-            View shortcut = createApplicationView(item, null);//mLauncher.createShortcut(mShortcutLayoutResource, null, shortcutInfo);
-            
-            while(nScreen < nPagesCount){
-            	
-            	if (addAppInScreen(nScreen, shortcut)) {
-	                break;
-	            }
-            	
-            	nScreen++;
-            }
-            
-//            for(nScreen=0; nScreen<nPagesCount; nScreen++){
-//            	if (addAppInScreen(nScreen, shortcut, shortcutInfo)) {
-//	                break;
-//	            }
-//            }
-            //QsLog.LogE("AllAppsWorkspace::setApps(0)==nScreen:"+nScreen+"==count:"+nScreenCount);
-            if(nScreen >= nPagesCount){
-            	addNewPage();
-            	nPagesCount = getChildCount();
-            	addAppInScreen(nScreen, shortcut);
-            	//QsLog.LogE("AllAppsWorkspace::setApps(1)==nScreen:"+nScreen+"==count:"+mWorkspace.getChildCount());
-            }
-        }
+    	if(mLauncher == null)
+    		return;
+    	
+    	insertApps(list);
+    	onAppsChanged(false);
     }
 
     public void removeApps(ArrayList<ApplicationInfo> list) {
+    	if(mLauncher == null)
+    		return;
     	
-    	final int count = getChildCount();
-        final PackageManager manager = getContext().getPackageManager();
-        final AppWidgetManager widgets = AppWidgetManager.getInstance(getContext());
-
-        final HashSet<ComponentName> packageNames = new HashSet<ComponentName>();
-        final int appCount = list.size();
-        for (int i = 0; i < appCount; i++) {
-            packageNames.add(list.get(i).componentName);
-        }
-        
-        //int nPackageCount = appCount;
-        for (int i = 0; i < count && packageNames.size() > 0; i++) {
-            final ViewGroup pagelayout = (ViewGroup) getChildAt(i);
-
-            // Avoid ANRs by treating each screen separately
-            post(new Runnable() {
-                public void run() {
-                    final ArrayList<View> childrenToRemove = new ArrayList<View>();
-                    childrenToRemove.clear();
-        
-                    int childCount = pagelayout.getChildCount();
-                    for (int j = 0; j < childCount && packageNames.size() > 0; j++) {
-                    	
-                        final View view = pagelayout.getChildAt(j);
-                        Object tag = view.getTag();
-        
-                        if (tag != null && (tag instanceof ApplicationInfo)) {
-                        	
-                            final ApplicationInfo info = (ApplicationInfo) tag;
-        
-                            for (ComponentName packageName: packageNames) {
-                                if (packageName.equals(info.componentName)) {
-                                    // TODO: This should probably be done on a worker thread
-                                     childrenToRemove.add(view);
-                                     packageNames.remove(packageName);
-                                     break;
-                                }
-                            }
-                        } 
-                    }
-                    //layout.dumpCellInfo();
-                    childCount = childrenToRemove.size();
-                    for (int j = 0; j < childCount; j++) {
-                        View child = childrenToRemove.get(j);
-                        pagelayout.removeViewInLayout(child);
-                    }
-                    //layout.dumpCellInfo();
-                    if (childCount > 0) {
-                    	pagelayout.requestLayout();
-                    	//pagelayout.invalidate();
-                    }
-                }
-            });
-        }
-        
-        invalidatePages();
+    	deleteApps(list);
+        onAppsChanged(false);
     }
 
     public void updateApps(ArrayList<ApplicationInfo> list) {
+    	if(mLauncher == null)
+    		return;
     	
-        // Just remove and add, because they may need to be re-sorted.
-    	final PackageManager pm = mLauncher.getPackageManager();
+        // Remove and add, because a renamed app has to be sorted again.  The infos
+        // may be the ones we have, changed in place, so rebind the views.
+        deleteApps(list);
+        insertApps(list);
+        onAppsChanged(true);
+    }
 
-        final int count = getChildCount();
-        for (int i = 0; i < count; i++) {
-            final PageGridLayout layout = (PageGridLayout) getChildAt(i);
-            int childCount = layout.getChildCount();
-            for (int j = 0; j < childCount; j++) {
-                final View view = layout.getChildAt(j);
-                Object tag = view.getTag();
-                if(tag != null && (tag instanceof ApplicationInfo)) 
-                {               	
-                	ApplicationInfo info = (ApplicationInfo)tag;
-
-                	final int appCount = list.size();
-                    for (int k=0; k<appCount; k++) 
-                    {
-                        ApplicationInfo app = list.get(k);
-                        if (app.componentName.equals(info.componentName)) 
-                        {
-                        	updateApplicationViewInfo(view, app);
-                        	break;
-                        }
-                    }
-                }
+    private void insertApps(ArrayList<ApplicationInfo> list) {
+    	final int N = list.size();
+    	for (int i=0; i<N; i++) {
+            final ApplicationInfo item = list.get(i);
+            int index = Collections.binarySearch(mApps, item,
+                    LauncherModel.APP_NAME_COMPARATOR);
+            if (index < 0) {
+                index = -(index+1);
+            }
+            mApps.add(index, item);
+        }
+    }
+
+    private void deleteApps(ArrayList<ApplicationInfo> list) {
+        final int N = list.size();
+        for (int i=0; i<N; i++) {
+            final int index = findAppByComponent(mApps, list.get(i));
+            if (index >= 0) {
+                mApps.remove(index);
+            } else {
+                QsLog.LogW("couldn't find a match for item \"" + list.get(i) + "\"");
             }
         }
-        
-        invalidatePages();
     }
 
 
@@ -801,6 +863,9 @@ public class AllAppsGridLayoutPages  extends ViewGroup implements AllAppsView,
     
     public void release(){
     	super.removeAllViews();
+    	mApps.clear();
+    	mBoundPages.clear();
+    	mRecycledViews.clear();
     }
     //end implements
     
@@ -190,6 +190,7 @@ public class AllAppsGridView extends GridView implements AllAppsView,
 
     public void setLauncher(Launcher launcher) {
         mLauncher = launcher;
+        mAppsAdapter.setLauncher(launcher);
     }
     
     public void setApps(ArrayList<ApplicationInfo> list) {
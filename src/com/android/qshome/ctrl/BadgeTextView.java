@@ -0,0 +1,39 @@
+package com.android.qshome.ctrl;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.util.AttributeSet;
+import android.widget.TextView;
+
+/**
+ * Plain TextView that can show an {@link IconBadge}, for the all apps cells.
+ */
+public class BadgeTextView extends TextView implements IconBadge.Host {
+    private final IconBadge mBadge = new IconBadge(this);
+
+    public BadgeTextView(Context context) {
+        super(context);
+    }
+
+    public BadgeTextView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public BadgeTextView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+    }
+
+    public void setBadgeCount(int count) {
+        mBadge.setCount(count);
+    }
+
+    public int getBadgeCount() {
+        return mBadge.getCount();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        super.draw(canvas);
+        mBadge.draw(canvas);
+    }
+}
@@ -33,7 +33,7 @@ import com.android.qshome.R;
  * because we want to make the bubble taller than the text and TextView's clip is
  * too aggressive.
  */
-public class BubbleTextView extends TextView {
+public class BubbleTextView extends TextView implements IconBadge.Host {
     static final float CORNER_RADIUS = 8.0f;
     static final float PADDING_H = 5.0f;
     static final float PADDING_V = 1.0f;
@@ -47,6 +47,8 @@ public class BubbleTextView extends TextView {
     protected float mPaddingH;
     protected float mPaddingV;
 
+    private final IconBadge mBadge = new IconBadge(this);
+
     public BubbleTextView(Context context) {
         super(context);
         init();
@@ -138,6 +140,15 @@ public class BubbleTextView extends TextView {
         }
         
         super.draw(canvas);
+        mBadge.draw(canvas);
+    }
+
+    public void setBadgeCount(int count) {
+        mBadge.setCount(count);
+    }
+
+    public int getBadgeCount() {
+        return mBadge.getCount();
     }
 
     @Override
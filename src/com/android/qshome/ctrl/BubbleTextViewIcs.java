@@ -22,7 +22,7 @@ import android.graphics.Region.Op;
 
 import com.android.qshome.R;
 
-public class BubbleTextViewIcs extends TextView {
+public class BubbleTextViewIcs extends TextView implements IconBadge.Host {
 	static final float CORNER_RADIUS = 4.0f;
 	static final float PADDING_H = 8.0f;
     static final float PADDING_V = 3.0f;
@@ -55,6 +55,8 @@ public class BubbleTextViewIcs extends TextView {
     protected float mPaddingV;
     protected Paint mPaint;
     
+    private final IconBadge mBadge = new IconBadge(this);
+    
 	public BubbleTextViewIcs(Context context) {
         this(context, null);
     }
@@ -292,6 +294,15 @@ public class BubbleTextViewIcs extends TextView {
         getPaint().setShadowLayer(SHADOW_SMALL_RADIUS, 0.0f, 0.0f, SHADOW_SMALL_COLOUR);
         super.draw(canvas);
         canvas.restore();
+        mBadge.draw(canvas);
+    }
+    
+    public void setBadgeCount(int count) {
+        mBadge.setCount(count);
+    }
+    
+    public int getBadgeCount() {
+        return mBadge.getCount();
     }
 //    @Override
 //    protected void onDrawCustom(Canvas canvas){
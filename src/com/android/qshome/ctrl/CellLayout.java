@@ -32,10 +32,9 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewDebug;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.app.WallpaperManager;
 
-import java.util.ArrayList;
-
 import com.android.qshome.LauncherModel;
 import com.android.qshome.R;
 import com.android.qshome.model.ItemInfo;
@@ -68,6 +67,12 @@ public class CellLayout extends ViewGroup {
     
     protected int[] mCellXY = new int[2];
     protected boolean[][] mOccupied;
+    // One bitmask per row, bit x set when cell (x, row) is occupied. Kept in
+    // step with mOccupied by findOccupiedCells().
+    protected int[] mOccupiedRows;
+    private int[] mSpanPositions;
+
+    private final PageSnapshot mSnapshot = new PageSnapshot();
 
     protected RectF mDragRect = new RectF();
 
@@ -117,6 +122,8 @@ public class CellLayout extends ViewGroup {
             } else {
                 mOccupied = new boolean[mLongAxisCells][mShortAxisCells];
             }
+            mOccupiedRows = new int[mPortrait ? mLongAxisCells : mShortAxisCells];
+            mSpanPositions = new int[mOccupiedRows.length];
         }
         
         mWallpaperManager = WallpaperManager.getInstance(getContext());
@@ -134,9 +141,48 @@ public class CellLayout extends ViewGroup {
 
     @Override
     public void dispatchDraw(Canvas canvas) {
+        final PageSnapshot snapshot = mSnapshot;
+        if (snapshot.isEnabled()) {
+            final Canvas snapshotCanvas = snapshot.beginRender(this);
+            if (snapshotCanvas != null) {
+                super.dispatchDraw(snapshotCanvas);
+                snapshot.endRender(this);
+            }
+            if (snapshot.draw(canvas, this)) {
+                return;
+            }
+        }
         super.dispatchDraw(canvas);
     }
 
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        // Something below us changed, the snapshot no longer shows it.
+        mSnapshot.invalidate();
+        return super.invalidateChildInParent(location, dirty);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mSnapshot.release();
+    }
+
+    /**
+     * While enabled, the children are drawn from a snapshot of the page that is
+     * only rendered again when they change. Used while the pager scrolls.
+     */
+    public void setSnapshotEnabled(boolean enabled) {
+        mSnapshot.setEnabled(enabled);
+    }
+
+    /**
+     * Drops the snapshot and gives its bitmap to the pages that need one.
+     */
+    public void releaseSnapshot() {
+        mSnapshot.release();
+    }
+
     @Override
     public void cancelLongPress() {
         super.cancelLongPress();
@@ -282,102 +328,76 @@ public class CellLayout extends ViewGroup {
             final boolean[][] occupied = mOccupied;
             findOccupiedCells(xCount, yCount, occupied, null);
 
-            findIntersectingVacantCells(info, info.cellX, info.cellY, xCount, yCount, occupied);
+            info.setOccupiedRows(mOccupiedRows, xCount, yCount);
 
             mDirtyTag = false;
         }
         return info;
     }
 
-    private static void findIntersectingVacantCells(CellInfo cellInfo, int x, int y,
-            int xCount, int yCount, boolean[][] occupied) {
-
-        cellInfo.maxVacantSpanX = Integer.MIN_VALUE;
-        cellInfo.maxVacantSpanXSpanY = Integer.MIN_VALUE;
-        cellInfo.maxVacantSpanY = Integer.MIN_VALUE;
-        cellInfo.maxVacantSpanYSpanX = Integer.MIN_VALUE;
-        cellInfo.clearVacantCells();
-
-        if (occupied[x][y]) {
-            return;
-        }
-
-        cellInfo.current.set(x, y, x, y);
-
-        findVacantCell(cellInfo.current, xCount, yCount, occupied, cellInfo);
-    }
-
-    private static void findVacantCell(Rect current, int xCount, int yCount, boolean[][] occupied,
-            CellInfo cellInfo) {
-
-        addVacantCell(current, cellInfo);
-
-        if (current.left > 0) {
-            if (isColumnEmpty(current.left - 1, current.top, current.bottom, occupied)) {
-                current.left--;
-                findVacantCell(current, xCount, yCount, occupied, cellInfo);
-                current.left++;
+    /**
+     * Computes every position at which a spanX by spanY item fits in the grid.
+     * Each row mask is first reduced to the columns that start spanX vacant cells,
+     * then spanY consecutive rows are ANDed together, so the cost is a handful of
+     * int operations per row whatever the grid size.
+     *
+     * @param occupiedRows One bitmask per row, bit x set when cell (x, row) is occupied
+     * @param xCount Number of columns, at most 31
+     * @param yCount Number of rows
+     * @param spanX Horizontal span of the item
+     * @param spanY Vertical span of the item
+     * @param positions Receives one bitmask per row, bit x set when the item fits
+     *        with its upper left corner at (x, row)
+     *
+     * @return True if the item fits anywhere
+     */
+    static boolean findSpanPositions(int[] occupiedRows, int xCount, int yCount,
+            int spanX, int spanY, int[] positions) {
+        if (spanX <= 0 || spanY <= 0 || spanX > xCount || spanY > yCount) {
+            for (int y = 0; y < yCount; y++) {
+                positions[y] = 0;
             }
+            return false;
         }
 
-        if (current.right < xCount - 1) {
-            if (isColumnEmpty(current.right + 1, current.top, current.bottom, occupied)) {
-                current.right++;
-                findVacantCell(current, xCount, yCount, occupied, cellInfo);
-                current.right--;
+        final int full = (1 << xCount) - 1;
+        for (int y = 0; y < yCount; y++) {
+            final int vacant = ~occupiedRows[y] & full;
+            int fits = vacant;
+            for (int i = 1; i < spanX && fits != 0; i++) {
+                fits &= vacant >>> i;
             }
+            positions[y] = fits;
         }
 
-        if (current.top > 0) {
-            if (isRowEmpty(current.top - 1, current.left, current.right, occupied)) {
-                current.top--;
-                findVacantCell(current, xCount, yCount, occupied, cellInfo);
-                current.top++;
+        boolean found = false;
+        final int lastY = yCount - spanY;
+        for (int y = 0; y < yCount; y++) {
+            if (y > lastY) {
+                positions[y] = 0;
+                continue;
             }
-        }
-
-        if (current.bottom < yCount - 1) {
-            if (isRowEmpty(current.bottom + 1, current.left, current.right, occupied)) {
-                current.bottom++;
-                findVacantCell(current, xCount, yCount, occupied, cellInfo);
-                current.bottom--;
+            int fits = positions[y];
+            for (int j = y + 1; j < y + spanY && fits != 0; j++) {
+                fits &= positions[j];
             }
+            positions[y] = fits;
+            found |= fits != 0;
         }
-    }
 
-    private static void addVacantCell(Rect current, CellInfo cellInfo) {
-        CellInfo.VacantCell cell = CellInfo.VacantCell.acquire();
-        cell.cellX = current.left;
-        cell.cellY = current.top;
-        cell.spanX = current.right - current.left + 1;
-        cell.spanY = current.bottom - current.top + 1;
-        if (cell.spanX > cellInfo.maxVacantSpanX) {
-            cellInfo.maxVacantSpanX = cell.spanX;
-            cellInfo.maxVacantSpanXSpanY = cell.spanY;
-        }
-        if (cell.spanY > cellInfo.maxVacantSpanY) {
-            cellInfo.maxVacantSpanY = cell.spanY;
-            cellInfo.maxVacantSpanYSpanX = cell.spanX;
-        }
-        cellInfo.vacantCells.add(cell);
+        return found;
     }
 
-    private static boolean isColumnEmpty(int x, int top, int bottom, boolean[][] occupied) {
-        for (int y = top; y <= bottom; y++) {
-            if (occupied[x][y]) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private static boolean isRowEmpty(int y, int left, int right, boolean[][] occupied) {
-        for (int x = left; x <= right; x++) {
-            if (occupied[x][y]) {
-                return false;
+    private static boolean findFirstSpanPosition(int[] positions, int yCount, int[] cellXY) {
+        for (int y = 0; y < yCount; y++) {
+            final int fits = positions[y];
+            if (fits != 0) {
+                cellXY[0] = Integer.numberOfTrailingZeros(fits);
+                cellXY[1] = y;
+                return true;
             }
         }
-        return true;
+        return false;
     }
 
     public CellInfo findAllVacantCells(boolean[] occupiedCells, View ignoreView) {
@@ -386,12 +406,16 @@ public class CellLayout extends ViewGroup {
         final int yCount = portrait ? mLongAxisCells : mShortAxisCells;
 
         boolean[][] occupied = mOccupied;
+        final int[] occupiedRows = mOccupiedRows;
 
         if (occupiedCells != null) {
             for (int y = 0; y < yCount; y++) {
+                int row = 0;
                 for (int x = 0; x < xCount; x++) {
                     occupied[x][y] = occupiedCells[y * xCount + x];
+                    if (occupied[x][y]) row |= 1 << x;
                 }
+                occupiedRows[y] = row;
             }
         } else {
             findOccupiedCells(xCount, yCount, occupied, ignoreView);
@@ -403,26 +427,14 @@ public class CellLayout extends ViewGroup {
         cellInfo.cellY = -1;
         cellInfo.spanY = 0;
         cellInfo.spanX = 0;
-        cellInfo.maxVacantSpanX = Integer.MIN_VALUE;
-        cellInfo.maxVacantSpanXSpanY = Integer.MIN_VALUE;
-        cellInfo.maxVacantSpanY = Integer.MIN_VALUE;
-        cellInfo.maxVacantSpanYSpanX = Integer.MIN_VALUE;
         cellInfo.screen = mCellInfo.screen;
+        cellInfo.setOccupiedRows(occupiedRows, xCount, yCount);
 
-        Rect current = cellInfo.current;
-
-        for (int x = 0; x < xCount; x++) {
-            for (int y = 0; y < yCount; y++) {
-                if (!occupied[x][y]) {
-                    current.set(x, y, x, y);
-                    findVacantCell(current, xCount, yCount, occupied, cellInfo);
-                    occupied[x][y] = true;
-                }
-            }
+        final int full = (1 << xCount) - 1;
+        for (int y = 0; y < yCount && !cellInfo.valid; y++) {
+            cellInfo.valid = occupiedRows[y] != full;
         }
 
-        cellInfo.valid = cellInfo.vacantCells.size() > 0;
-
         // Assume the caller will perform their own cell searching, otherwise we
         // risk causing an unnecessary rebuild after findCellForSpan()
         
@@ -625,6 +637,7 @@ public class CellLayout extends ViewGroup {
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        mSnapshot.invalidate();
         int count = getChildCount();
 
         for (int i = 0; i < count; i++) {
@@ -651,22 +664,6 @@ public class CellLayout extends ViewGroup {
         }
     }
 
-    @Override
-    protected void setChildrenDrawingCacheEnabled(boolean enabled) {
-        final int count = getChildCount();
-        for (int i = 0; i < count; i++) {
-            final View view = getChildAt(i);
-            view.setDrawingCacheEnabled(enabled);
-            // Update the drawing caches
-            view.buildDrawingCache(true);
-        }
-    }
-
-    @Override
-    protected void setChildrenDrawnWithCacheEnabled(boolean enabled) {
-        super.setChildrenDrawnWithCacheEnabled(enabled);
-    }
-
     /**
      * Find a vacant area that will fit the given bounds nearest the requested
      * cell location. Uses Euclidean distance to score multiple vacant areas.
@@ -686,37 +683,42 @@ public class CellLayout extends ViewGroup {
         // Keep track of best-scoring drop area
         final int[] bestXY = recycle != null ? recycle : new int[2];
         final int[] cellXY = mCellXY;
-        double bestDistance = Double.MAX_VALUE;
+        long bestDistance = Long.MAX_VALUE;
         
         // Bail early if vacant cells aren't valid
         if (!vacantCells.valid) {
             return null;
         }
 
-        // Look across all vacant cells for best fit
-        final int size = vacantCells.vacantCells.size();
-        for (int i = 0; i < size; i++) {
-            final CellInfo.VacantCell cell = vacantCells.vacantCells.get(i);
-            
-            // Reject if vacant cell isn't our exact size
-            if (cell.spanX != spanX || cell.spanY != spanY) {
-                continue;
-            }
-            
-            // Score is center distance from requested pixel
-            cellToPoint(cell.cellX, cell.cellY, cellXY);
-            
-            double distance = Math.sqrt(Math.pow(cellXY[0] - pixelX, 2) +
-                    Math.pow(cellXY[1] - pixelY, 2));
-            if (distance <= bestDistance) {
-                bestDistance = distance;
-                bestXY[0] = cell.cellX;
-                bestXY[1] = cell.cellY;
+        final int[] positions = vacantCells.findSpanPositions(spanX, spanY);
+        if (positions == null) {
+            return null;
+        }
+
+        // Look across every position the span fits at for the best one
+        final int yCount = vacantCells.countY;
+        for (int y = 0; y < yCount; y++) {
+            int fits = positions[y];
+            while (fits != 0) {
+                final int x = Integer.numberOfTrailingZeros(fits);
+                fits &= fits - 1;
+
+                // Score is center distance from requested pixel, squared is as good to compare
+                cellToPoint(x, y, cellXY);
+
+                final long dx = cellXY[0] - pixelX;
+                final long dy = cellXY[1] - pixelY;
+                final long distance = dx * dx + dy * dy;
+                if (distance <= bestDistance) {
+                    bestDistance = distance;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                }
             }
         }
 
         // Return null if no suitable location found 
-        if (bestDistance < Double.MAX_VALUE) {
+        if (bestDistance < Long.MAX_VALUE) {
             return bestXY;
         } else {
             return null;
@@ -843,49 +845,24 @@ public class CellLayout extends ViewGroup {
 
         findOccupiedCells(xCount, yCount, occupied, null);
 
-        return findVacantCell(vacant, spanX, spanY, xCount, yCount, occupied);
+        final int[] positions = mSpanPositions;
+        return findSpanPositions(mOccupiedRows, xCount, yCount, spanX, spanY, positions)
+                && findFirstSpanPosition(positions, yCount, vacant);
     }
 
     public static boolean findVacantCell(int[] vacant, int spanX, int spanY,
             int xCount, int yCount, boolean[][] occupied) {
 
+        final int[] occupiedRows = new int[yCount];
         for (int y = 0; y < yCount; y++) {
-        	for (int x = 0; x < xCount; x++) {
-                boolean available = !occupied[x][y];
-out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
-                    for (int j = y; j < y + spanY - 1 && y < yCount; j++) {
-                        available = available && !occupied[i][j];
-                        if (!available) break out;
-                    }
-                }
-
-                if (available) {
-                    vacant[0] = x;
-                    vacant[1] = y;
-                    return true;
-                }
+            for (int x = 0; x < xCount; x++) {
+                if (occupied[x][y]) occupiedRows[y] |= 1 << x;
             }
         }
-    	
-//        for (int x = 0; x < xCount; x++) {
-//            for (int y = 0; y < yCount; y++) {
-//                boolean available = !occupied[x][y];
-//out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
-//                    for (int j = y; j < y + spanY - 1 && y < yCount; j++) {
-//                        available = available && !occupied[i][j];
-//                        if (!available) break out;
-//                    }
-//                }
-//
-//                if (available) {
-//                    vacant[0] = x;
-//                    vacant[1] = y;
-//                    return true;
-//                }
-//            }
-//        }
 
-        return false;
+        final int[] positions = new int[yCount];
+        return findSpanPositions(occupiedRows, xCount, yCount, spanX, spanY, positions)
+                && findFirstSpanPosition(positions, yCount, vacant);
     }
 
     public boolean[] getOccupiedCells() {
@@ -913,6 +890,11 @@ out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
             }
         }
 
+        final int[] occupiedRows = mOccupiedRows;
+        for (int y = 0; y < yCount; y++) {
+            occupiedRows[y] = 0;
+        }
+
         int count = getChildCount();
         for (int i = 0; i < count; i++) {
             View child = getChildAt(i);
@@ -924,6 +906,7 @@ out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
             for (int x = lp.cellX; x < lp.cellX + lp.cellHSpan && x < xCount; x++) {
                 for (int y = lp.cellY; y < lp.cellY + lp.cellVSpan && y < yCount; y++) {
                     occupied[x][y] = true;
+                    occupiedRows[y] |= 1 << x;
                 }
             }
         }
@@ -1036,61 +1019,6 @@ out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
     }
 
     public static final class CellInfo implements ContextMenu.ContextMenuInfo {
-        /**
-         * See View.AttachInfo.InvalidateInfo for futher explanations about
-         * the recycling mechanism. In this case, we recycle the vacant cells
-         * instances because up to several hundreds can be instanciated when
-         * the user long presses an empty cell.
-         */
-    	public static final class VacantCell {
-    		public int cellX;
-    		public int cellY;
-    		public int spanX;
-    		public int spanY;
-
-            // We can create up to 523 vacant cells on a 4x4 grid, 100 seems
-            // like a reasonable compromise given the size of a VacantCell and
-            // the fact that the user is not likely to touch an empty 4x4 grid
-            // very often 
-            private static final int POOL_LIMIT = 100;
-            private static final Object sLock = new Object();
-
-            private static int sAcquiredCount = 0;
-            private static VacantCell sRoot;
-
-            private VacantCell next;
-
-            public static VacantCell acquire() {
-                synchronized (sLock) {
-                    if (sRoot == null) {
-                        return new VacantCell();
-                    }
-
-                    VacantCell info = sRoot;
-                    sRoot = info.next;
-                    sAcquiredCount--;
-
-                    return info;
-                }
-            }
-
-            public void release() {
-                synchronized (sLock) {
-                    if (sAcquiredCount < POOL_LIMIT) {
-                        sAcquiredCount++;
-                        next = sRoot;
-                        sRoot = this;
-                    }
-                }
-            }
-
-            @Override
-            public String toString() {
-                return "VacantCell[x=" + cellX + ", y=" + cellY + ", spanX=" + spanX +
-                        ", spanY=" + spanY + "]";
-            }
-        }
-
     	public View cell;
     	public int cellX;
     	public int cellY;
@@ -1099,37 +1027,49 @@ out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
     	public int screen;
     	public boolean valid;
 
-    	public final ArrayList<VacantCell> vacantCells = new ArrayList<VacantCell>(VacantCell.POOL_LIMIT);
-    	public int maxVacantSpanX;
-    	public int maxVacantSpanXSpanY;
-    	public int maxVacantSpanY;
-    	public int maxVacantSpanYSpanX;
-    	public final Rect current = new Rect();
-
-    	public void clearVacantCells() {
-            final ArrayList<VacantCell> list = vacantCells;
-            final int count = list.size();
+    	// Snapshot of the grid occupancy taken when the cell info was filled in,
+    	// one bitmask per row. countX and countY are zeroed once it is consumed.
+    	int[] occupiedRows;
+    	int countX;
+    	int countY;
+    	private int[] mSpanPositions;
+
+    	void setOccupiedRows(int[] rows, int xCount, int yCount) {
+            if (occupiedRows == null || occupiedRows.length < yCount) {
+                occupiedRows = new int[yCount];
+                mSpanPositions = new int[yCount];
+            }
+            System.arraycopy(rows, 0, occupiedRows, 0, yCount);
+            countX = xCount;
+            countY = yCount;
+        }
 
-            for (int i = 0; i < count; i++) list.get(i).release();
+    	int[] findSpanPositions(int spanX, int spanY) {
+            if (countX > 0 && CellLayout.findSpanPositions(occupiedRows, countX, countY,
+                    spanX, spanY, mSpanPositions)) {
+                return mSpanPositions;
+            }
+            return null;
+        }
 
-            list.clear();
+    	public void clearVacantCells() {
+            countX = 0;
+            countY = 0;
         }
 
     	public void findVacantCellsFromOccupied(boolean[] occupied, int xCount, int yCount) {
             if (cellX < 0 || cellY < 0) {
-                maxVacantSpanX = maxVacantSpanXSpanY = Integer.MIN_VALUE;
-                maxVacantSpanY = maxVacantSpanYSpanX = Integer.MIN_VALUE;
                 clearVacantCells();
                 return;
             }
 
-            final boolean[][] unflattened = new boolean[xCount][yCount];
+            final int[] rows = new int[yCount];
             for (int y = 0; y < yCount; y++) {
                 for (int x = 0; x < xCount; x++) {
-                    unflattened[x][y] = occupied[y * xCount + x];
+                    if (occupied[y * xCount + x]) rows[y] |= 1 << x;
                 }
             }
-            CellLayout.findIntersectingVacantCells(this, cellX, cellY, xCount, yCount, unflattened);
+            setOccupiedRows(rows, xCount, yCount);
         }
 
         /**
@@ -1151,36 +1091,33 @@ out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
         }
 
     	public boolean findCellForSpan(int[] cellXY, int spanX, int spanY, boolean clear) {
-            final ArrayList<VacantCell> list = vacantCells;
-            final int count = list.size();
-
             boolean found = false;
 
             if (this.spanX >= spanX && this.spanY >= spanY) {
                 cellXY[0] = cellX;
                 cellXY[1] = cellY;
                 found = true;
-            }
-
-            // Look for an exact match first
-            for (int i = 0; i < count; i++) {
-                VacantCell cell = list.get(i);
-                if (cell.spanX == spanX && cell.spanY == spanY) {
-                    cellXY[0] = cell.cellX;
-                    cellXY[1] = cell.cellY;
-                    found = true;
-                    break;
-                }
-            }
-
-            // Look for the first cell large enough
-            for (int i = 0; i < count; i++) {
-                VacantCell cell = list.get(i);
-                if (cell.spanX >= spanX && cell.spanY >= spanY) {
-                    cellXY[0] = cell.cellX;
-                    cellXY[1] = cell.cellY;
-                    found = true;
-                    break;
+            } else {
+                final int[] positions = findSpanPositions(spanX, spanY);
+                if (positions == null) {
+                    found = false;
+                } else if (cellX >= 0 && cellY >= 0) {
+                    // Only spans covering the touched cell, preferring it as the upper left corner
+                    final int minY = Math.max(0, cellY - spanY + 1);
+                    final int minX = Math.max(0, cellX - spanX + 1);
+                    final int maxY = Math.min(cellY, countY - 1);
+out:                for (int y = maxY; y >= minY && cellX < countX; y--) {
+                        for (int x = cellX; x >= minX; x--) {
+                            if ((positions[y] & (1 << x)) != 0) {
+                                cellXY[0] = x;
+                                cellXY[1] = y;
+                                found = true;
+                                break out;
+                            }
+                        }
+                    }
+                } else {
+                    found = findFirstSpanPosition(positions, countY, cellXY);
                 }
             }
 
@@ -1226,9 +1163,8 @@ out:            for (int i = x; i < x + spanX - 1 && x < xCount; i++) {
             lp.cellY = cellY;
             
             ItemInfo info = (ItemInfo) child.getTag();
-            info.cellX = cellX;
-            info.cellY = cellY;
-            LauncherModel.updateItemInDatabase(getContext(), info, true);
+            LauncherModel.moveItemInDatabase(getContext(), info, info.container, info.screen,
+                    cellX, cellY, true);
             cellX++;
             if(cellX >= mShortAxisCells){
             	cellY++;
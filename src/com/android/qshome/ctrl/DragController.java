@@ -27,9 +27,11 @@ import android.os.Handler;
 import android.os.Vibrator;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.view.inputmethod.InputMethodManager;
 
@@ -66,6 +68,7 @@ public class DragController {
     private static final int VIBRATE_DURATION = 35;
 
     private static final boolean PROFILE_DRAWING_DURING_DRAG = false;
+    private static final boolean DEBUG_DRAG_MOVES = false;
 
     private static final int SCROLL_OUTSIDE_ZONE = 0;
     private static final int SCROLL_WAITING_IN_ZONE = 1;
@@ -73,13 +76,33 @@ public class DragController {
     private static final int SCROLL_LEFT = 0;
     private static final int SCROLL_RIGHT = 1;
 
+    // The screen is cut into this many buckets to find drop targets by position.
+    private static final int TARGET_INDEX_COLUMNS = 4;
+    private static final int TARGET_INDEX_ROWS = 6;
+
     private Context mContext;
     private Handler mHandler;
+    private Choreographer mChoreographer;
     private final Vibrator mVibrator;// = new Vibrator();
 
     // temporaries to avoid gc thrash
     private Rect mRectTemp = new Rect();
     private final int[] mCoordinatesTemp = new int[2];
+    private final int[] mLocationTemp = new int[2];
+
+    /**
+     * Where the drop targets are on screen, worked out when a drag first needs them and
+     * again after anything was laid out or scrolled.  mTargetRects and mTargetOrigins are
+     * by index in mDropTargets; each bucket of mTargetIndex lists the targets that cover
+     * it, last added first.
+     */
+    private Rect[] mTargetRects = new Rect[0];
+    private int[] mTargetOrigins = new int[0];
+    private final int[][] mTargetIndex = new int[TARGET_INDEX_COLUMNS * TARGET_INDEX_ROWS][];
+    private final int[] mTargetIndexSizes = new int[TARGET_INDEX_COLUMNS * TARGET_INDEX_ROWS];
+    private int mTargetIndexCellWidth = 1;
+    private int mTargetIndexCellHeight = 1;
+    private boolean mTargetIndexValid;
 
     /** Whether or not we're dragging. */
     private boolean mDragging;
@@ -136,6 +159,26 @@ public class DragController {
 
     private InputMethodManager mInputMethodManager;
 
+    /** The latest move that hasn't been handled yet, raw and clamped to the screen. */
+    private int mMoveRawX;
+    private int mMoveRawY;
+    private int mMoveX;
+    private int mMoveY;
+    private boolean mMovePending;
+
+    /** Moves seen this drag, counting the batched ones in each event, and moves handled. */
+    private int mMovesReceived;
+    private int mMovesHandled;
+
+    private final Choreographer.FrameCallback mMoveCallback = new Choreographer.FrameCallback() {
+        public void doFrame(long frameTimeNanos) {
+            mMovePending = false;
+            if (mDragging) {
+                handleMove(mMoveRawX, mMoveRawY, mMoveX, mMoveY);
+            }
+        }
+    };
+
     /**
      * Interface to receive notifications when a drag starts or stops
      */
@@ -165,9 +208,24 @@ public class DragController {
     public DragController(Context context) {
         mContext = context;
         mHandler = new Handler();
+        mChoreographer = Choreographer.getInstance();
         mVibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
     }
 
+    private final ViewTreeObserver.OnGlobalLayoutListener mLayoutListener =
+            new ViewTreeObserver.OnGlobalLayoutListener() {
+        public void onGlobalLayout() {
+            invalidateDropTargets();
+        }
+    };
+
+    private final ViewTreeObserver.OnScrollChangedListener mScrollListener =
+            new ViewTreeObserver.OnScrollChangedListener() {
+        public void onScrollChanged() {
+            invalidateDropTargets();
+        }
+    };
+
     /**
      * Starts a drag.
      * 
@@ -266,6 +324,9 @@ public class DragController {
         //mTouchOffsetY = mMotionDownY - screenY;
 
         mDragging = true;
+        invalidateDropTargets();
+        mMovesReceived = 0;
+        mMovesHandled = 0;
         mDragObject = new DropTarget.DragObject();
         
         mDragObject.dragComplete = false;
@@ -399,9 +460,31 @@ public class DragController {
         endDrag();
     }
 
+    /**
+     * Handles the move that is waiting for the next frame now, so the drop
+     * target has been entered (and the previous one exited) before the drop.
+     */
+    private void handlePendingMove() {
+        if (mMovePending) {
+            mChoreographer.removeFrameCallback(mMoveCallback);
+            mMovePending = false;
+            if (mDragging) {
+                handleMove(mMoveRawX, mMoveRawY, mMoveX, mMoveY);
+            }
+        }
+    }
+
     private void endDrag() {
+        if (mMovePending) {
+            mChoreographer.removeFrameCallback(mMoveCallback);
+            mMovePending = false;
+        }
         if (mDragging) {
             mDragging = false;
+            if (DEBUG_DRAG_MOVES) {
+                Log.d(TAG, "drag moves: received=" + mMovesReceived + " handled=" + mMovesHandled
+                        + " dropped=" + (mMovesReceived - mMovesHandled));
+            }
             if (mOriginator != null) {
                 mOriginator.setVisibility(View.VISIBLE);
             }
@@ -453,6 +536,7 @@ public class DragController {
                 break;
             case MotionEvent.ACTION_UP:
                 if (mDragging) {
+                    handlePendingMove();
                     drop(screenX, screenY);
                 }
                 endDrag();
@@ -505,68 +589,22 @@ public class DragController {
 
             break;
         case MotionEvent.ACTION_MOVE:
-            // Update the drag view.  Don't use the clamped pos here so the dragging looks
-            // like it goes off screen a little, intead of bumping up against the edge.
-        	mDragObject.dragView.move((int)ev.getRawX(), (int)ev.getRawY());
-
-            // Drop on someone?
-            final int[] coordinates = mCoordinatesTemp;
-            DropTarget dropTarget = findDropTarget(screenX, screenY, coordinates);
-            if (dropTarget != null) {
-                if (mLastDropTarget == dropTarget) {
-//                    dropTarget.onDragOver(mDragSource, coordinates[0], coordinates[1],
-//                        (int) mTouchOffsetX, (int) mTouchOffsetY, mDragView, mDragInfo);
-                    dropTarget.onDragOver(mDragObject);
-                } else {
-                    if (mLastDropTarget != null) {
-//                        mLastDropTarget.onDragExit(mDragSource, coordinates[0], coordinates[1],
-//                            (int) mTouchOffsetX, (int) mTouchOffsetY, mDragView, mDragInfo);
-                        mLastDropTarget.onDragExit(mDragObject);
-                    }
-//                    dropTarget.onDragEnter(mDragSource, coordinates[0], coordinates[1],
-//                        (int) mTouchOffsetX, (int) mTouchOffsetY, mDragView, mDragInfo);
-                    //QsLog.LogW("DragController::onTouchEvent(4)====onDragEnter===");
-                    dropTarget.onDragEnter(mDragObject);
-                }
-            } else {
-            	//QsLog.LogW("DragController::onTouchEvent(5)====null===");
-                if (mLastDropTarget != null) {
-//                    mLastDropTarget.onDragExit(mDragSource, coordinates[0], coordinates[1],
-//                        (int) mTouchOffsetX, (int) mTouchOffsetY, mDragView, mDragInfo);
-                    mLastDropTarget.onDragExit(mDragObject);
-                }
-            }
-            mLastDropTarget = dropTarget;
-
-            // Scroll, maybe, but not if we're in the delete region.
-            boolean inDeleteRegion = false;
-            if (mDeleteRegion != null) {
-                inDeleteRegion = mDeleteRegion.contains(screenX, screenY);
+            // Only the latest position matters; moves that come in before the next
+            // frame replace it.
+            mMovesReceived += 1 + ev.getHistorySize();
+            mMoveRawX = (int)ev.getRawX();
+            mMoveRawY = (int)ev.getRawY();
+            mMoveX = screenX;
+            mMoveY = screenY;
+            if (!mMovePending) {
+                mMovePending = true;
+                mChoreographer.postFrameCallback(mMoveCallback);
             }
-            if (!inDeleteRegion && screenX < SCROLL_ZONE) {
-                if (mScrollState == SCROLL_OUTSIDE_ZONE) {
-                    mScrollState = SCROLL_WAITING_IN_ZONE;
-                    mScrollRunnable.setDirection(SCROLL_LEFT);
-                    mHandler.postDelayed(mScrollRunnable, SCROLL_DELAY);
-                }
-            } else if (!inDeleteRegion && screenX > scrollView.getWidth() - SCROLL_ZONE) {
-                if (mScrollState == SCROLL_OUTSIDE_ZONE) {
-                    mScrollState = SCROLL_WAITING_IN_ZONE;
-                    mScrollRunnable.setDirection(SCROLL_RIGHT);
-                    mHandler.postDelayed(mScrollRunnable, SCROLL_DELAY);
-                }
-            } else {
-                if (mScrollState == SCROLL_WAITING_IN_ZONE) {
-                    mScrollState = SCROLL_OUTSIDE_ZONE;
-                    mScrollRunnable.setDirection(SCROLL_RIGHT);
-                    mHandler.removeCallbacks(mScrollRunnable);
-                }
-            }
-
             break;
         case MotionEvent.ACTION_UP:
             mHandler.removeCallbacks(mScrollRunnable);
             if (mDragging) {
+                handlePendingMove();
                 drop(screenX, screenY);
             }
             endDrag();
@@ -579,6 +617,59 @@ public class DragController {
         return true;
     }
 
+    private void handleMove(int rawX, int rawY, int screenX, int screenY) {
+        final View scrollView = mScrollView;
+        mMovesHandled++;
+
+        // Update the drag view.  Don't use the clamped pos here so the dragging looks
+        // like it goes off screen a little, intead of bumping up against the edge.
+        mDragObject.dragView.move(rawX, rawY);
+
+        // Drop on someone?
+        final int[] coordinates = mCoordinatesTemp;
+        DropTarget dropTarget = findDropTarget(screenX, screenY, coordinates);
+        if (dropTarget != null) {
+            if (mLastDropTarget == dropTarget) {
+                dropTarget.onDragOver(mDragObject);
+            } else {
+                if (mLastDropTarget != null) {
+                    mLastDropTarget.onDragExit(mDragObject);
+                }
+                dropTarget.onDragEnter(mDragObject);
+            }
+        } else {
+            if (mLastDropTarget != null) {
+                mLastDropTarget.onDragExit(mDragObject);
+            }
+        }
+        mLastDropTarget = dropTarget;
+
+        // Scroll, maybe, but not if we're in the delete region.
+        boolean inDeleteRegion = false;
+        if (mDeleteRegion != null) {
+            inDeleteRegion = mDeleteRegion.contains(screenX, screenY);
+        }
+        if (!inDeleteRegion && screenX < SCROLL_ZONE) {
+            if (mScrollState == SCROLL_OUTSIDE_ZONE) {
+                mScrollState = SCROLL_WAITING_IN_ZONE;
+                mScrollRunnable.setDirection(SCROLL_LEFT);
+                mHandler.postDelayed(mScrollRunnable, SCROLL_DELAY);
+            }
+        } else if (!inDeleteRegion && screenX > scrollView.getWidth() - SCROLL_ZONE) {
+            if (mScrollState == SCROLL_OUTSIDE_ZONE) {
+                mScrollState = SCROLL_WAITING_IN_ZONE;
+                mScrollRunnable.setDirection(SCROLL_RIGHT);
+                mHandler.postDelayed(mScrollRunnable, SCROLL_DELAY);
+            }
+        } else {
+            if (mScrollState == SCROLL_WAITING_IN_ZONE) {
+                mScrollState = SCROLL_OUTSIDE_ZONE;
+                mScrollRunnable.setDirection(SCROLL_RIGHT);
+                mHandler.removeCallbacks(mScrollRunnable);
+            }
+        }
+    }
+
     public boolean isSystemApp(ShortcutInfo info) {
     	final ResolveInfo resolveInfo = mContext.getPackageManager().resolveActivity(info.intent, 0);
     	if ((resolveInfo.activityInfo.applicationInfo.flags & android.content.pm.ApplicationInfo.FLAG_SYSTEM) != 0) {
@@ -631,30 +722,101 @@ public class DragController {
     }
 
     private DropTarget findDropTarget(int x, int y, int[] dropCoordinates) {
-        final Rect r = mRectTemp;
+        if (!mTargetIndexValid) {
+            buildDropTargetIndex();
+        }
+
+        mDragObject.x = x;
+        mDragObject.y = y;
 
+        final int bucket = clamp(y / mTargetIndexCellHeight, 0, TARGET_INDEX_ROWS) * TARGET_INDEX_COLUMNS
+                + clamp(x / mTargetIndexCellWidth, 0, TARGET_INDEX_COLUMNS);
+        final int[] candidates = mTargetIndex[bucket];
+        final int count = mTargetIndexSizes[bucket];
+        for (int j=0; j<count; j++) {
+            final int i = candidates[j];
+            final DropTarget target = mDropTargets.get(i);
+            if (!target.isDropEnabled())
+                continue;
+
+            if (mTargetRects[i].contains(x, y)) {
+                dropCoordinates[0] = x - mTargetOrigins[i * 2];
+                dropCoordinates[1] = y - mTargetOrigins[i * 2 + 1];
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget where the drop targets are, because something moved.  They're looked up
+     * again on the next move of the drag.
+     */
+    public void invalidateDropTargets() {
+        mTargetIndexValid = false;
+    }
+
+    private void buildDropTargetIndex() {
         final ArrayList<DropTarget> dropTargets = mDropTargets;
         final int count = dropTargets.size();
+        if (mTargetRects.length < count) {
+            final Rect[] rects = new Rect[count];
+            System.arraycopy(mTargetRects, 0, rects, 0, mTargetRects.length);
+            for (int i = mTargetRects.length; i < count; i++) {
+                rects[i] = new Rect();
+            }
+            mTargetRects = rects;
+            mTargetOrigins = new int[count * 2];
+        }
+        for (int b = 0; b < mTargetIndexSizes.length; b++) {
+            mTargetIndexSizes[b] = 0;
+        }
+
+        final int cellWidth = Math.max(1,
+                (mDisplayMetrics.widthPixels + TARGET_INDEX_COLUMNS - 1) / TARGET_INDEX_COLUMNS);
+        final int cellHeight = Math.max(1,
+                (mDisplayMetrics.heightPixels + TARGET_INDEX_ROWS - 1) / TARGET_INDEX_ROWS);
+        mTargetIndexCellWidth = cellWidth;
+        mTargetIndexCellHeight = cellHeight;
+
+        final int[] loc = mLocationTemp;
         for (int i=count-1; i>=0; i--) {
             final DropTarget target = dropTargets.get(i);
-            if (!target.isDropEnabled())
-                continue;
-            
-            
+            final Rect r = mTargetRects[i];
             target.getHitRect(r);
-            target.getLocationOnScreen(dropCoordinates);
-            r.offset(dropCoordinates[0] - target.getLeft(), dropCoordinates[1] - target.getTop());
-            
-            mDragObject.x = x;
-            mDragObject.y = y;
-            
-            if (r.contains(x, y)) {
-                dropCoordinates[0] = x - dropCoordinates[0];
-                dropCoordinates[1] = y - dropCoordinates[1];
-                return target;
+            target.getLocationOnScreen(loc);
+            r.offset(loc[0] - target.getLeft(), loc[1] - target.getTop());
+            mTargetOrigins[i * 2] = loc[0];
+            mTargetOrigins[i * 2 + 1] = loc[1];
+            if (r.isEmpty()) {
+                continue;
+            }
+
+            final int left = clamp(r.left / cellWidth, 0, TARGET_INDEX_COLUMNS);
+            final int right = clamp((r.right - 1) / cellWidth, 0, TARGET_INDEX_COLUMNS);
+            final int top = clamp(r.top / cellHeight, 0, TARGET_INDEX_ROWS);
+            final int bottom = clamp((r.bottom - 1) / cellHeight, 0, TARGET_INDEX_ROWS);
+            for (int row = top; row <= bottom; row++) {
+                for (int col = left; col <= right; col++) {
+                    addToBucket(row * TARGET_INDEX_COLUMNS + col, i);
+                }
             }
         }
-        return null;
+        mTargetIndexValid = true;
+    }
+
+    private void addToBucket(int bucket, int target) {
+        int[] targets = mTargetIndex[bucket];
+        final int size = mTargetIndexSizes[bucket];
+        if (targets == null || size == targets.length) {
+            final int[] grown = new int[Math.max(4, size * 2)];
+            if (targets != null) {
+                System.arraycopy(targets, 0, grown, 0, size);
+            }
+            targets = mTargetIndex[bucket] = grown;
+        }
+        targets[size] = target;
+        mTargetIndexSizes[bucket] = size + 1;
     }
 
     /**
@@ -722,6 +884,7 @@ public class DragController {
      */
     public void addDropTarget(DropTarget target) {
         mDropTargets.add(target);
+        invalidateDropTargets();
     }
 
     /**
@@ -729,21 +892,36 @@ public class DragController {
      */
     public void removeDropTarget(DropTarget target) {
         mDropTargets.remove(target);
+        invalidateDropTargets();
     }
     
     public void removeAllDropTargets() {
     	mDropTargets.clear();
+    	invalidateDropTargets();
     }
     
     public void clearDropTargets() {
     	mDropTargets.clear();
+    	invalidateDropTargets();
     }
 
     /**
      * Set which view scrolls for touch events near the edge of the screen.
      */
     public void setScrollView(View v) {
+        if (mScrollView != null) {
+            final ViewTreeObserver observer = mScrollView.getViewTreeObserver();
+            if (observer.isAlive()) {
+                observer.removeGlobalOnLayoutListener(mLayoutListener);
+                observer.removeOnScrollChangedListener(mScrollListener);
+            }
+        }
         mScrollView = v;
+        if (v != null) {
+            final ViewTreeObserver observer = v.getViewTreeObserver();
+            observer.addOnGlobalLayoutListener(mLayoutListener);
+            observer.addOnScrollChangedListener(mScrollListener);
+        }
     }
 
     /**
@@ -56,6 +56,11 @@ public class DragView extends View implements TweenCallback {
     private WindowManager.LayoutParams mLayoutParams;
     private WindowManager mWindowManager;
 
+    // Where the bitmap is drawn.  The window covers the screen and stays put, moving is
+    // only drawing somewhere else.
+    private int mDrawX;
+    private int mDrawY;
+
     //private Rect mDragRegion = null;
     //private Point mDragVisualizeOffset = null;
     
@@ -100,7 +105,8 @@ public class DragView extends View implements TweenCallback {
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        setMeasuredDimension(mBitmap.getWidth(), mBitmap.getHeight());
+        setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec),
+                MeasureSpec.getSize(heightMeasureSpec));
     }
 
     @Override
@@ -112,6 +118,7 @@ public class DragView extends View implements TweenCallback {
             p.setColor(0xaaffffff);
             canvas.drawRect(0, 0, getWidth(), getHeight(), p);
         }
+        canvas.translate(mDrawX, mDrawY);
         float scale = mAnimationScale;
         if (scale < 0.999f) { // allow for some float error
             float width = mBitmap.getWidth();
@@ -130,7 +137,7 @@ public class DragView extends View implements TweenCallback {
 
     public void onTweenValueChanged(float value, float oldValue) {
         mAnimationScale = (1.0f+((mScale-1.0f)*value))/mScale;
-        invalidate();
+        invalidateBitmap();
     }
 
     public void onTweenStarted() {
@@ -158,12 +165,13 @@ public class DragView extends View implements TweenCallback {
         pixelFormat = PixelFormat.TRANSLUCENT;
 
         lp = new WindowManager.LayoutParams(
-                ViewGroup.LayoutParams.WRAP_CONTENT,
-                ViewGroup.LayoutParams.WRAP_CONTENT,
-                touchX-mRegistrationX, touchY-mRegistrationY,
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                0, 0,
                 WindowManager.LayoutParams.TYPE_APPLICATION_SUB_PANEL,
                 WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN
                     | WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS
+                    | WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE
                     /*| WindowManager.LayoutParams.FLAG_ALT_FOCUSABLE_IM*/,
                 pixelFormat);
 //        lp.token = mStatusBarView.getWindowToken();
@@ -171,6 +179,8 @@ public class DragView extends View implements TweenCallback {
         lp.token = windowToken;
         lp.setTitle("DragView");
         mLayoutParams = lp;
+        mDrawX = touchX - mRegistrationX;
+        mDrawY = touchY - mRegistrationY;
 
         mWindowManager.addView(this, lp);
 
@@ -185,10 +195,19 @@ public class DragView extends View implements TweenCallback {
      * @param touchY the y coordinate the user touched in screen coordinates
      */
     public void move(int touchX, int touchY) {
-        WindowManager.LayoutParams lp = mLayoutParams;
-        lp.x = touchX - mRegistrationX;
-        lp.y = touchY - mRegistrationY;
-        mWindowManager.updateViewLayout(this, lp);
+        final int x = touchX - mRegistrationX;
+        final int y = touchY - mRegistrationY;
+        if (x == mDrawX && y == mDrawY) {
+            return;
+        }
+        invalidateBitmap();
+        mDrawX = x;
+        mDrawY = y;
+        invalidateBitmap();
+    }
+
+    private void invalidateBitmap() {
+        invalidate(mDrawX, mDrawY, mDrawX + mBitmap.getWidth(), mDrawY + mBitmap.getHeight());
     }
 
     public void remove() {
@@ -196,10 +215,9 @@ public class DragView extends View implements TweenCallback {
     }
 
     public int[] getPosition(int[] result) {
-    	WindowManager.LayoutParams lp = mLayoutParams;
         if (result == null) result = new int[2];
-        result[0] = lp.x;
-        result[1] = lp.y;
+        result[0] = mDrawX;
+        result[1] = mDrawY;
         return result;
     }
     
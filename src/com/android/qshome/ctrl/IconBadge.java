@@ -0,0 +1,133 @@
+package com.android.qshome.ctrl;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.widget.TextView;
+
+import com.android.qshome.R;
+
+/**
+ * A count drawn over the bottom right corner of a TextView's top drawable.
+ *
+ * The badge is drawn by the host at the end of its draw(), on top of the
+ * cached icon, so the icon itself never changes. Changing the count only
+ * invalidates the badge's bounds.
+ */
+public class IconBadge {
+    /** Shows the badge without a number. */
+    public static final int INDICATOR = -1;
+    /** Larger counts are shown as this. */
+    static final int MAX_SHOWN_COUNT = 99;
+
+    /**
+     * A view that can show a badge.
+     */
+    public interface Host {
+        public void setBadgeCount(int count);
+        public int getBadgeCount();
+    }
+
+    private static final int[] DIGIT_RESOURCES = {
+            R.drawable.num_0, R.drawable.num_1, R.drawable.num_2, R.drawable.num_3,
+            R.drawable.num_4, R.drawable.num_5, R.drawable.num_6, R.drawable.num_7,
+            R.drawable.num_8, R.drawable.num_9
+    };
+
+    // Shared by every badge; only touched on the main thread.
+    private static Bitmap sBackground;
+    private static final Bitmap[] sDigits = new Bitmap[DIGIT_RESOURCES.length];
+
+    private final TextView mHost;
+    private final Rect mBounds = new Rect();
+    private int mCount;
+
+    public IconBadge(TextView host) {
+        mHost = host;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public void setCount(int count) {
+        if (count > MAX_SHOWN_COUNT) {
+            count = MAX_SHOWN_COUNT;
+        } else if (count < 0) {
+            count = INDICATOR;
+        }
+        if (count == mCount) {
+            return;
+        }
+        // Redraw where the old badge was and where the new one goes, which is
+        // the same rect unless the icon moved.
+        invalidateBadge();
+        mCount = count;
+        invalidateBadge();
+    }
+
+    private void invalidateBadge() {
+        if (mCount != 0 && computeBounds()) {
+            mHost.invalidate(mBounds);
+        }
+    }
+
+    /**
+     * Puts the badge's bounds, in the host's scrolled coordinates, in mBounds.
+     * Follows where TextView draws the top compound drawable.
+     */
+    private boolean computeBounds() {
+        final TextView host = mHost;
+        final Drawable icon = host.getCompoundDrawables()[1];
+        if (icon == null) {
+            return false;
+        }
+        if (sBackground == null) {
+            loadBitmaps(host.getResources());
+        }
+
+        final int left = host.getCompoundPaddingLeft();
+        final int hspace = host.getWidth() - left - host.getCompoundPaddingRight();
+        final Rect iconBounds = icon.getBounds();
+        final int iconRight = host.getScrollX() + left
+                + (hspace - iconBounds.width()) / 2 + iconBounds.width();
+        final int iconBottom = host.getScrollY() + host.getPaddingTop() + iconBounds.height();
+
+        mBounds.set(iconRight - sBackground.getWidth(), iconBottom - sBackground.getHeight(),
+                iconRight, iconBottom);
+        return true;
+    }
+
+    private static void loadBitmaps(Resources res) {
+        sBackground = BitmapFactory.decodeResource(res, R.drawable.round);
+        for (int i = 0; i < DIGIT_RESOURCES.length; i++) {
+            sDigits[i] = BitmapFactory.decodeResource(res, DIGIT_RESOURCES[i]);
+        }
+    }
+
+    public void draw(Canvas canvas) {
+        if (mCount == 0 || !computeBounds()) {
+            return;
+        }
+
+        final Rect bounds = mBounds;
+        canvas.drawBitmap(sBackground, bounds.left, bounds.top, null);
+        if (mCount == INDICATOR) {
+            return;
+        }
+
+        final Bitmap tens = mCount >= 10 ? sDigits[mCount / 10] : null;
+        final Bitmap units = sDigits[mCount % 10];
+        final int bw = bounds.width();
+        final int bh = bounds.height();
+        int x = bounds.left + (bw - units.getWidth() - (tens != null ? tens.getWidth() : 0)) / 2;
+        if (tens != null) {
+            canvas.drawBitmap(tens, x, bounds.top + (bh - tens.getHeight()) / 2, null);
+            x += tens.getWidth();
+        }
+        canvas.drawBitmap(units, x, bounds.top + (bh - units.getHeight()) / 2, null);
+    }
+}
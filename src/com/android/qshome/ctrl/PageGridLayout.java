@@ -2,9 +2,12 @@ package com.android.qshome.ctrl;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 
 import com.android.qshome.R;
 import com.android.qshome.util.QsLog;
@@ -20,6 +23,8 @@ public class PageGridLayout extends ViewGroup{
     private int mMaxRowsCount;
     //private int mChildPadding = 0;
     
+    private final PageSnapshot mSnapshot = new PageSnapshot();
+    
 	public PageGridLayout(Context context) {
         this(context, null);
     }
@@ -77,8 +82,13 @@ public class PageGridLayout extends ViewGroup{
     	return ((getChildCount() < (mMaxCellsCount * mMaxRowsCount)) ? false : true);
     }
     
+    public int getMaxItemsCount(){
+    	return mMaxCellsCount * mMaxRowsCount;
+    }
+    
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+    	mSnapshot.invalidate();
 
     	final int count = getChildCount();
     	//final int nTopPadding = ((bottom - top) - (mMaxRowsCount * mCellHeight))/2;
@@ -199,18 +209,46 @@ public class PageGridLayout extends ViewGroup{
     }
     
     @Override
-    protected void setChildrenDrawingCacheEnabled(boolean enabled) {
-        final int count = getChildCount();
-        for (int i = 0; i < count; i++) {
-            final View view = getChildAt(i);
-            view.setDrawingCacheEnabled(enabled);
-            // Update the drawing caches
-            view.buildDrawingCache(true);
+    protected void dispatchDraw(Canvas canvas) {
+        final PageSnapshot snapshot = mSnapshot;
+        if (snapshot.isEnabled()) {
+            final Canvas snapshotCanvas = snapshot.beginRender(this);
+            if (snapshotCanvas != null) {
+                super.dispatchDraw(snapshotCanvas);
+                snapshot.endRender(this);
+            }
+            if (snapshot.draw(canvas, this)) {
+                return;
+            }
         }
+        super.dispatchDraw(canvas);
+    }
+
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        // Something below us changed, the snapshot no longer shows it.
+        mSnapshot.invalidate();
+        return super.invalidateChildInParent(location, dirty);
     }
 
     @Override
-    protected void setChildrenDrawnWithCacheEnabled(boolean enabled) {
-        super.setChildrenDrawnWithCacheEnabled(enabled);
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mSnapshot.release();
+    }
+
+    /**
+     * While enabled, the children are drawn from a snapshot of the page that is
+     * only rendered again when they change. Used while the pager scrolls.
+     */
+    public void setSnapshotEnabled(boolean enabled) {
+        mSnapshot.setEnabled(enabled);
+    }
+
+    /**
+     * Drops the snapshot and gives its bitmap to the pages that need one.
+     */
+    public void releaseSnapshot() {
+        mSnapshot.release();
     }
 }
@@ -0,0 +1,192 @@
+package com.android.qshome.ctrl;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.Log;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+
+/**
+ * A bitmap of a page's children that the page draws in their place while its
+ * pager scrolls.
+ *
+ * The snapshot is rendered the first time it is drawn and then kept until the
+ * page tells it that its content changed. A swipe over unchanged pages costs
+ * one bitmap draw per page and no allocation. Snapshots given up by pages that
+ * scrolled out of reach go to a small pool, and the next page to render one
+ * takes its bitmap from there.
+ *
+ * A page whose children keep changing, e.g. an animated widget, would render a
+ * snapshot every frame; after MAX_RENDERS_PER_SCROLL renders it draws its
+ * children directly until the pager stops.
+ *
+ * The page's own background and whatever it draws after its children are not
+ * part of the snapshot. Everything here runs on the main thread.
+ */
+public class PageSnapshot {
+    private static final String TAG = "Launcher.PageSnapshot";
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_POOLED_BITMAPS = 2;
+    private static final int MAX_RENDERS_PER_SCROLL = 3;
+    private static final ArrayList<Bitmap> sPool = new ArrayList<Bitmap>(MAX_POOLED_BITMAPS);
+    /** Every snapshot that holds a bitmap. */
+    private static final ArrayList<PageSnapshot> sHolders = new ArrayList<PageSnapshot>();
+
+    private final Canvas mCanvas = new Canvas();
+    private Bitmap mBitmap;
+    private boolean mEnabled;
+    private boolean mValid;
+    /** Rendered during the current draw, so it's drawn even if a child invalidated meanwhile. */
+    private boolean mRendered;
+    /** The page's child count when the snapshot was rendered. */
+    private int mChildCount;
+    /** Renders since the pager started scrolling. */
+    private int mRenders;
+    /** Rendered too often during this scroll, stay disabled until it ends. */
+    private boolean mGaveUp;
+
+    /**
+     * Drops every page's snapshot and the pooled bitmaps, e.g. when the
+     * launcher goes to the background or is asked to trim its memory. Pages
+     * render new ones the next time their pager scrolls.
+     */
+    public static void releaseAll() {
+        for (int i = sHolders.size() - 1; i >= 0; i--) {
+            sHolders.get(i).release();
+        }
+        for (int i = sPool.size() - 1; i >= 0; i--) {
+            sPool.remove(i).recycle();
+        }
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        if (!enabled) {
+            mRenders = 0;
+            mGaveUp = false;
+        }
+        mEnabled = enabled && !mGaveUp;
+    }
+
+    /**
+     * Called when anything on the page changed; the next draw renders the
+     * snapshot again.
+     */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Gives the bitmap up to the pool. The page renders a new snapshot the next
+     * time it is drawn with one.
+     */
+    void release() {
+        mEnabled = false;
+        mValid = false;
+        final Bitmap bitmap = mBitmap;
+        if (bitmap == null) {
+            return;
+        }
+        mBitmap = null;
+        sHolders.remove(this);
+        if (sPool.size() < MAX_POOLED_BITMAPS) {
+            sPool.add(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Returns the canvas to render the page's children into, or null if the
+     * snapshot is still good or can't be made. endRender() must follow a
+     * non-null return.
+     */
+    Canvas beginRender(ViewGroup page) {
+        final int width = page.getWidth();
+        final int height = page.getHeight();
+        if (width <= 0 || height <= 0) {
+            mValid = false;
+            return null;
+        }
+
+        Bitmap bitmap = mBitmap;
+        if (mValid && bitmap != null && bitmap.getWidth() == width
+                && bitmap.getHeight() == height && mChildCount == page.getChildCount()) {
+            return null;
+        }
+
+        if (++mRenders > MAX_RENDERS_PER_SCROLL) {
+            if (DEBUG) Log.d(TAG, "giving up on the snapshot of " + page);
+            release();
+            mGaveUp = true;
+            return null;
+        }
+
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            release();
+            bitmap = obtainBitmap(width, height);
+            if (bitmap == null) {
+                return null;
+            }
+            mBitmap = bitmap;
+            sHolders.add(this);
+            mEnabled = true;
+        } else {
+            bitmap.eraseColor(0);
+        }
+
+        // Set first: a child that invalidates while it draws asks for another render.
+        mValid = true;
+        final Canvas canvas = mCanvas;
+        canvas.setBitmap(bitmap);
+        canvas.save();
+        canvas.translate(-page.getScrollX(), -page.getScrollY());
+        return canvas;
+    }
+
+    void endRender(ViewGroup page) {
+        mCanvas.restore();
+        mChildCount = page.getChildCount();
+        mRendered = true;
+    }
+
+    /**
+     * Draws the snapshot in place of the page's children. Returns false if
+     * there is no valid snapshot to draw.
+     */
+    boolean draw(Canvas canvas, ViewGroup page) {
+        final boolean rendered = mRendered;
+        mRendered = false;
+        if (mBitmap == null || !(mValid || rendered)) {
+            return false;
+        }
+        canvas.drawBitmap(mBitmap, page.getScrollX(), page.getScrollY(), null);
+        return true;
+    }
+
+    private static Bitmap obtainBitmap(int width, int height) {
+        for (int i = sPool.size() - 1; i >= 0; i--) {
+            final Bitmap bitmap = sPool.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                sPool.remove(i);
+                bitmap.eraseColor(0);
+                return bitmap;
+            }
+        }
+        // The pooled bitmaps are the wrong size, e.g. after a rotation.
+        for (int i = sPool.size() - 1; i >= 0; i--) {
+            sPool.remove(i).recycle();
+        }
+        try {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "No memory for a " + width + "x" + height + " page snapshot");
+            return null;
+        }
+    }
+}
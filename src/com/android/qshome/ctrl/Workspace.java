@@ -17,6 +17,7 @@
 package com.android.qshome.ctrl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 
 import android.app.WallpaperManager;
@@ -40,6 +41,7 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
 import android.view.View;
@@ -60,6 +62,7 @@ import com.android.qshome.ctrl.CellLayout.CellInfo;
 import com.android.qshome.ctrl.CellLayout.LayoutParams;
 import com.android.qshome.ctrl.DropTarget.DragObject;
 import com.android.qshome.model.ApplicationInfo;
+import com.android.qshome.model.FolderInfo;
 import com.android.qshome.model.IconCache;
 import com.android.qshome.model.ItemInfo;
 import com.android.qshome.model.LauncherAppWidgetInfo;
@@ -101,6 +104,22 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
 
     private int mCurrentScreen;
     private int mNextScreen = INVALID_SCREEN;
+
+    /**
+     * Makes the view of an item that was bound while its screen was out of reach.
+     */
+    public interface ItemViewFactory {
+        /**
+         * @return the view for item, to go in screen, or null if it has none.
+         */
+        View createItemView(ItemInfo item, CellLayout screen);
+    }
+
+    private ItemViewFactory mItemViewFactory;
+    // Shortcuts and folders bound to screens more than one away from the current one,
+    // whose views haven't been made yet, by screen.
+    private final SparseArray<ArrayList<ItemInfo>> mPendingItems =
+            new SparseArray<ArrayList<ItemInfo>>();
     private Scroller mScroller;
     private VelocityTracker mVelocityTracker;
 
@@ -406,6 +425,7 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
         if (!mScroller.isFinished()) mScroller.abortAnimation();
         clearVacantCache();
         mCurrentScreen = Math.max(0, Math.min(currentScreen, getChildCount() - 1));
+        inflateScreensNear(mCurrentScreen);
         if(mPreviousIndicator != null){
 	        mPreviousIndicator.setLevel(mCurrentScreen);
 	        mNextIndicator.setLevel(mCurrentScreen);
@@ -575,6 +595,7 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
     
     @Override
     public void computeScroll() {
+        final int oldScrollX = mScrollX;
         if (mScroller.computeScrollOffset()) {
         	if(ENABLE_GOOGLE_SMOOTH) {
         		mTouchX = mScrollX = mScroller.getCurrX();
@@ -608,6 +629,10 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
             }
         }
         
+        // mScrollX was set directly, so nobody was told the screens moved.
+        if (mScrollX != oldScrollX && mDragController != null) {
+            mDragController.invalidateDropTargets();
+        }
     }
     
 
@@ -1015,18 +1040,28 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
         fromScreen = Math.max(fromScreen, 0);
         toScreen = Math.min(toScreen, count - 1);
 
+        // Pages out of reach hand their snapshot bitmaps to the ones coming in.
+        for (int i = 0; i < count; i++) {
+            final CellLayout layout = (CellLayout) getChildAt(i);
+            if (i < fromScreen || i > toScreen) {
+                layout.releaseSnapshot();
+            }
+        }
         for (int i = fromScreen; i <= toScreen; i++) {
             final CellLayout layout = (CellLayout) getChildAt(i);
-            layout.setChildrenDrawnWithCacheEnabled(true);
-            layout.setChildrenDrawingCacheEnabled(true);
+            layout.setSnapshotEnabled(true);
         }
     }
 
+    /**
+     * Goes back to drawing the pages' children directly. Their snapshots are
+     * kept for the next swipe.
+     */
     public void clearChildrenCache() {
         final int count = getChildCount();
         for (int i = 0; i < count; i++) {
             final CellLayout layout = (CellLayout) getChildAt(i);
-            layout.setChildrenDrawnWithCacheEnabled(false);
+            layout.setSnapshotEnabled(false);
         }
     }
 
@@ -1201,6 +1236,8 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
     	
         whichScreen = Math.max(0, Math.min(whichScreen, getChildCount() - 1));
         //QsLog.LogD("Workspace::snapToScreen(0)===mCurrentScreen:"+mCurrentScreen+"=whichScreen:"+whichScreen);
+        // Before we scroll, so whatever comes into view has its icons.
+        inflateScreensNear(whichScreen);
         clearVacantCache();
         enableChildrenCache(mCurrentScreen, whichScreen);
 
@@ -1462,6 +1499,7 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
         if (savedState.currentScreen != -1) {
             mCurrentScreen = savedState.currentScreen;
             Launcher.setScreen(mCurrentScreen);
+            inflateScreensNear(mCurrentScreen);
         }
     }
 
@@ -1866,6 +1904,9 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
     }
 
     public void removeItems(final ArrayList<ApplicationInfo> apps) {
+        // Rare enough that it isn't worth matching the pending items separately.
+        inflateAllScreens();
+
         final int count = getChildCount();
         final PackageManager manager = getContext().getPackageManager();
         final AppWidgetManager widgets = AppWidgetManager.getInstance(getContext());
@@ -1991,8 +2032,185 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
         }
     }
 
+    public void setItemViewFactory(ItemViewFactory factory) {
+        mItemViewFactory = factory;
+    }
+
+    /**
+     * @return true if the views of items on screen should be made now, rather than when
+     *     the user scrolls near it.
+     */
+    public boolean isScreenInReach(int screen) {
+        return mItemViewFactory == null || Math.abs(screen - mCurrentScreen) <= 1
+                || (mNextScreen != INVALID_SCREEN && Math.abs(screen - mNextScreen) <= 1);
+    }
+
+    /**
+     * Remember item, whose screen is out of reach, and only make its view once the user
+     * scrolls within a screen of it.
+     */
+    public void addPendingItem(ItemInfo item) {
+        ArrayList<ItemInfo> pending = mPendingItems.get(item.screen);
+        if (pending == null) {
+            pending = new ArrayList<ItemInfo>();
+            mPendingItems.put(item.screen, pending);
+        }
+        pending.add(item);
+    }
+
+    public void clearPendingItems() {
+        mPendingItems.clear();
+    }
+
+    private void inflateScreensNear(int screen) {
+        if (mPendingItems.size() == 0) {
+            return;
+        }
+        for (int s = screen - 1; s <= screen + 1; s++) {
+            inflateScreen(s);
+        }
+    }
+
+    private void inflateAllScreens() {
+        while (mPendingItems.size() > 0) {
+            inflateScreen(mPendingItems.keyAt(0));
+        }
+    }
+
+    private void inflateScreen(int screen) {
+        final ArrayList<ItemInfo> pending = mPendingItems.get(screen);
+        if (pending == null) {
+            return;
+        }
+        mPendingItems.remove(screen);
+        if (screen < 0 || screen >= getChildCount() || mItemViewFactory == null) {
+            return;
+        }
+
+        final CellLayout layout = (CellLayout) getChildAt(screen);
+        final int N = pending.size();
+        for (int i = 0; i < N; i++) {
+            final ItemInfo item = pending.get(i);
+            final View view = mItemViewFactory.createItemView(item, layout);
+            if (view != null) {
+                addInScreen(view, screen, item.cellX, item.cellY, 1, 1, false);
+            }
+        }
+    }
+
+    /**
+     * Drop the views of the shortcuts and folders more than a screen away from the
+     * current one, to be made again when the user scrolls back.  Widgets are kept.
+     */
+    public void releaseFarScreens() {
+        if (mItemViewFactory == null) {
+            return;
+        }
+        final ArrayList<View> childrenToRemove = new ArrayList<View>();
+        final int count = getChildCount();
+        for (int i = 0; i < count; i++) {
+            if (isScreenInReach(i)) {
+                continue;
+            }
+            final CellLayout layout = (CellLayout) getChildAt(i);
+            childrenToRemove.clear();
+            final int childCount = layout.getChildCount();
+            for (int j = 0; j < childCount; j++) {
+                final View view = layout.getChildAt(j);
+                final Object tag = view.getTag();
+                if (tag instanceof ShortcutInfo || tag instanceof FolderInfo) {
+                    childrenToRemove.add(view);
+                }
+            }
+            for (View child : childrenToRemove) {
+                layout.removeViewInLayout(child);
+                if (child instanceof DropTarget) {
+                    mDragController.removeDropTarget((DropTarget)child);
+                }
+                addPendingItem((ItemInfo) child.getTag());
+            }
+            if (childrenToRemove.size() > 0) {
+                layout.requestLayout();
+            }
+        }
+        clearVacantCache();
+    }
+
+    /**
+     * Remove the views of the items with these ids, e.g. because their rows were deleted
+     * behind our back.  Doesn't touch the database.
+     */
+    public void removeItemsById(HashSet<Long> ids) {
+        final int count = getChildCount();
+        final ArrayList<View> childrenToRemove = new ArrayList<View>();
+
+        for (int i = 0; i < mPendingItems.size(); i++) {
+            final ArrayList<ItemInfo> pending = mPendingItems.valueAt(i);
+            for (int j = pending.size() - 1; j >= 0; j--) {
+                if (ids.contains(pending.get(j).id)) {
+                    pending.remove(j);
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            final CellLayout layout = (CellLayout) getChildAt(i);
+            childrenToRemove.clear();
+
+            int childCount = layout.getChildCount();
+            for (int j = 0; j < childCount; j++) {
+                final View view = layout.getChildAt(j);
+                final Object tag = view.getTag();
+                if (tag instanceof ItemInfo && ids.contains(((ItemInfo) tag).id)) {
+                    childrenToRemove.add(view);
+                }
+            }
+
+            childCount = childrenToRemove.size();
+            for (int j = 0; j < childCount; j++) {
+                View child = childrenToRemove.get(j);
+                layout.removeViewInLayout(child);
+                if (child instanceof DropTarget) {
+                    mDragController.removeDropTarget((DropTarget)child);
+                }
+            }
+            if (childCount > 0) {
+                if(mIsApplicationMode)
+                    layout.reSortCellsForApps();
+
+                layout.requestLayout();
+                layout.invalidate();
+            }
+        }
+    }
+
     public void updateShortcuts(ArrayList<ApplicationInfo> apps) {
-        final PackageManager pm = mLauncher.getPackageManager();
+        final HashSet<ComponentName> components = new HashSet<ComponentName>(apps.size());
+        for (ApplicationInfo app : apps) {
+            components.add(app.componentName);
+        }
+        updateShortcutIcons(components);
+    }
+
+    /**
+     * Take the icons of the shortcuts to components from the icon cache again.
+     */
+    public void updateShortcutIcons(Collection<ComponentName> components) {
+        // Those without views yet only need the new icon for when they get one.
+        for (int i = 0; i < mPendingItems.size(); i++) {
+            final ArrayList<ItemInfo> pending = mPendingItems.valueAt(i);
+            for (ItemInfo item : pending) {
+                if (item.itemType != LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                    continue;
+                }
+                final ShortcutInfo info = (ShortcutInfo) item;
+                final ComponentName name = info.intent.getComponent();
+                if (Intent.ACTION_MAIN.equals(info.intent.getAction()) && name != null
+                        && components.contains(name)) {
+                    reloadShortcutIcon(info);
+                }
+            }
+        }
 
         final int count = getChildCount();
         for (int i = 0; i < count; i++) {
@@ -2009,23 +2227,28 @@ public class Workspace extends ViewGroup implements DropTarget, DragSource, Drag
                     final Intent intent = info.intent;
                     final ComponentName name = intent.getComponent();
                     if (info.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION &&
-                            Intent.ACTION_MAIN.equals(intent.getAction()) && name != null) {
-                        final int appCount = apps.size();
-                        for (int k=0; k<appCount; k++) {
-                            ApplicationInfo app = apps.get(k);
-                            if (app.componentName.equals(name)) {
-                                info.setIcon(mIconCache.getIcon(info.intent));
-                                ((TextView)view).setCompoundDrawablesWithIntrinsicBounds(null,
-                                        new FastBitmapDrawable(info.getIcon(mIconCache)),
-                                        null, null);
-                                }
-                        }
+                            Intent.ACTION_MAIN.equals(intent.getAction()) && name != null &&
+                            components.contains(name)) {
+                        reloadShortcutIcon(info);
+                        ((TextView)view).setCompoundDrawablesWithIntrinsicBounds(null,
+                                new FastBitmapDrawable(info.getIcon(mIconCache)),
+                                null, null);
                     }
                 }
             }
         }
     }
 
+    private void reloadShortcutIcon(ShortcutInfo info) {
+        final Bitmap icon = mIconCache.getIcon(info.intent);
+        info.setIcon(icon);
+        // A shortcut added while its icon was loading was given the fallback icon.  Now
+        // that it has the real one, it's saved and restyled like the others again.
+        if (!mIconCache.isDefaultIcon(icon)) {
+            info.usingFallbackIcon = false;
+        }
+    }
+
     public void moveToDefaultScreen(boolean animate) {
         if (animate) {
             snapToScreen(mDefaultScreen);
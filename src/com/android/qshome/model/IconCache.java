@@ -16,21 +16,38 @@
 
 package com.android.qshome.model;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.android.qshome.LauncherApplication;
+import com.android.qshome.LauncherModel;
 import com.android.qshome.LauncherModel.Callbacks;
 import com.android.qshome.style.BaseStyleObject;
 import com.android.qshome.util.Utilities;
@@ -45,22 +62,75 @@ public class IconCache {
 
     private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
 
-    private static class CacheEntry {
-        public Bitmap icon;
+    // Fraction of the per-app heap limit the cached bitmaps may use.
+    private static final int ICON_CACHE_HEAP_FRACTION = 8;
+
+    // Misses for components that hash to the same stripe are loaded one at a time.
+    private static final int LOAD_LOCK_STRIPES = 32;
+    // Waits on a load lock shorter than this are not counted as contention.
+    private static final long CONTENDED_WAIT_NANOS = 100 * 1000;
+    // Styles used before the current one whose icons we keep, most recent last.
+    private static final int MAX_STYLE_VARIANTS = 2;
+
+    static class CacheEntry {
+        public volatile Bitmap icon;
+        /** ItemInfo.hashBitmap() of icon, worked out the first time it's asked for; 0 until then. */
+        public volatile long iconHash;
         public String title;
-        public Bitmap titleBitmap;
+        public volatile Bitmap titleBitmap;
         
         //public Bitmap iconInEditMode;
+
+        /** Rendered here rather than read back from mDiskCache, so it should be stored. */
+        boolean needsSave;
+        /** What icon and titleBitmap were counted as in mCacheBytes. */
+        volatile int bytes;
+        /** Read back from mDiskCache rather than rendered. */
+        boolean fromDisk;
+        /** The style this was rendered for. */
+        ThemeStyle style;
+        /** mClock when this was last looked up, for the LRU eviction. */
+        volatile long lastAccess;
     }
 
     private final Bitmap mDefaultIcon;
     private final LauncherApplication mContext;
     private final PackageManager mPackageManager;
     private final Utilities.BubbleText mBubble;
-    private final HashMap<ComponentName, CacheEntry> mCache =
-            new HashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    // Lookups take no lock.  Entries are only mutated while holding the entry itself.
+    // Holds the entries of the current style; swapped by changeAppStyle().
+    private volatile ConcurrentHashMap<ComponentName, CacheEntry> mCache =
+            new ConcurrentHashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    // The entries of the styles used before the current one, most recent last, so
+    // switching back to one of them doesn't render anything.  Guarded by itself.
+    private final LinkedHashMap<ThemeStyle, StyleVariant> mVariants =
+            new LinkedHashMap<ThemeStyle, StyleVariant>();
+    // What the entries in mVariants hold, counted against the same budget as mCache.
+    private volatile int mVariantBytes;
+    private final AtomicInteger mPrerendered = new AtomicInteger();
+    private final Object[] mLoadLocks = new Object[LOAD_LOCK_STRIPES];
+    private final Object mEvictLock = new Object();
+    private final AtomicLong mClock = new AtomicLong();
+    // Bumped by flush() and removePackage(), so loads that raced with them aren't cached.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    // Components on the workspace and hotseat; never evicted.  Replaced, never modified.
+    private volatile Set<ComponentName> mPinned = Collections.emptySet();
+    private final int mMaxCacheBytes;
+    private final AtomicInteger mCacheBytes = new AtomicInteger();
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+    private final AtomicInteger mEvictions = new AtomicInteger();
+    private final AtomicInteger mContended = new AtomicInteger();
+    private final AtomicLong mContendedNanos = new AtomicLong();
+    private final AtomicInteger mUiContended = new AtomicInteger();
+    private final AtomicLong mUiContendedNanos = new AtomicLong();
+    private final IconDiskCache mDiskCache;
+    // lastUpdateTime per package, so we only ask the package manager once per package.
+    private final HashMap<String, Long> mPackageUpdateTimes = new HashMap<String, Long>();
     
     //private BaseStyleObject.ThemeStyle mAppStyle;
+    private volatile ThemeStyle mThemeStyle = ThemeStyle.Unkown;
     private Bitmap mDeleteIcon;
     
     private Callbacks mCallbacks;
@@ -69,9 +139,45 @@ public class IconCache {
     public interface Callbacks{
         public Bitmap createIconBitmap(ComponentName componentName, ResolveInfo info, Context context, final PackageManager packageManager);
     }
+
+    /**
+     * Told on the main thread about the icons that main thread lookups missed, once
+     * they have been loaded in the background.
+     */
+    public interface IconListener {
+        public void onIconsLoaded(ArrayList<ComponentName> components);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile IconListener mIconListener;
+    // Misses of main thread lookups being loaded on the worker, and the ones loaded
+    // since the listener was last told.  Both guarded by mAsyncLoads.
+    private final HashSet<ComponentName> mAsyncLoads = new HashSet<ComponentName>();
+    private ArrayList<ComponentName> mAsyncLoaded = new ArrayList<ComponentName>();
+
+    /**
+     * The cached entries of a style other than the current one, and the callbacks
+     * they were rendered with.
+     */
+    private static class StyleVariant {
+        final ConcurrentHashMap<ComponentName, CacheEntry> cache;
+        final Callbacks callbacks;
+        int bytes;
+
+        StyleVariant(ConcurrentHashMap<ComponentName, CacheEntry> cache, Callbacks callbacks) {
+            this.cache = cache;
+            this.callbacks = callbacks;
+        }
+    }
     
+    public void setIconListener(IconListener listener) {
+        mIconListener = listener;
+    }
+
     public void setCallbacks(Callbacks callback){
     	synchronized (mLock) {
+    		if (mCallbacks == callback)
+    			return;
     		mCallbacks = callback;
     		this.flush();
         }
@@ -83,6 +189,14 @@ public class IconCache {
         mPackageManager = context.getPackageManager();
         mBubble = new Utilities.BubbleText(context);
         mDefaultIcon = makeDefaultIcon();
+        mDiskCache = new IconDiskCache(context);
+        for (int i = 0; i < LOAD_LOCK_STRIPES; i++) {
+            mLoadLocks[i] = new Object();
+        }
+
+        final ActivityManager am =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mMaxCacheBytes = am.getMemoryClass() * 1024 * 1024 / ICON_CACHE_HEAP_FRACTION;
     }
 
     private Bitmap makeDefaultIcon() {
@@ -97,8 +211,121 @@ public class IconCache {
     }
     
     public void changeAppStyle(ThemeStyle style){
-    	if(mBubble != null)
-    		mBubble.initStyle(mContext, style);
+    	if(mBubble != null){
+    		synchronized (mBubble) {
+    			mBubble.initStyle(mContext, style);
+    		}
+    	}
+    	if(style == mThemeStyle)
+    		return;
+
+    	// Park what was rendered for the old style and bring back what we still have
+    	// for the new one.  The callbacks go with the entries, the style's apps view
+    	// sets them again when it is created.
+    	synchronized (mVariants) {
+    		synchronized (mLock) {
+    			final ThemeStyle old = mThemeStyle;
+    			if(old != ThemeStyle.Unkown){
+    				final StyleVariant parked = new StyleVariant(mCache, mCallbacks);
+    				parked.bytes = mCacheBytes.get();
+    				mVariants.put(old, parked);
+    				mVariantBytes += parked.bytes;
+    			}
+
+    			final StyleVariant restored = mVariants.remove(style);
+    			if(restored != null){
+    				mVariantBytes -= restored.bytes;
+    				mCache = restored.cache;
+    				mCallbacks = restored.callbacks;
+    				mCacheBytes.set(restored.bytes);
+    			}else{
+    				mCache = new ConcurrentHashMap<ComponentName, CacheEntry>(
+    						INITIAL_ICON_CACHE_CAPACITY);
+    				mCallbacks = null;
+    				mCacheBytes.set(0);
+    			}
+    			mThemeStyle = style;
+    			mGeneration.incrementAndGet();
+    		}
+
+    		while(mVariants.size() > MAX_STYLE_VARIANTS){
+    			final Iterator<StyleVariant> it = mVariants.values().iterator();
+    			mVariantBytes -= it.next().bytes;
+    			it.remove();
+    		}
+    	}
+    	trimToSize(null);
+    }
+
+    /**
+     * Render the entries that the recently used styles are missing for components,
+     * so that switching back to one of them serves its icons at once.  What doesn't
+     * fit in memory is still stored on disk.  Meant to run on a background thread
+     * while the launcher is idle; renders at most count components per call.
+     *
+     * @return True if there is more to do.
+     */
+    public boolean prerenderStyleVariants(List<ComponentName> components, int count) {
+        final ArrayList<ThemeStyle> styles;
+        synchronized (mVariants) {
+            styles = new ArrayList<ThemeStyle>(mVariants.keySet());
+        }
+
+        int done = 0;
+        // Most recently used first.
+        for (int i = styles.size() - 1; i >= 0; i--) {
+            final ThemeStyle style = styles.get(i);
+            final StyleVariant variant;
+            synchronized (mVariants) {
+                variant = mVariants.get(style);
+            }
+            if (variant == null) {
+                continue;
+            }
+
+            final int N = components.size();
+            for (int j = 0; j < N; j++) {
+                final ComponentName component = components.get(j);
+                if (variant.cache.containsKey(component)) {
+                    continue;
+                }
+                if (done >= count) {
+                    return true;
+                }
+
+                final long lastUpdateTime = getPackageUpdateTime(component.getPackageName());
+                final boolean fits;
+                synchronized (mVariants) {
+                    fits = mCacheBytes.get() + mVariantBytes < mMaxCacheBytes;
+                }
+                if (!fits && (lastUpdateTime <= 0 || mDiskCache.contains(component, style,
+                        lastUpdateTime))) {
+                    // Nowhere to keep it, and reading it back from disk is cheap anyway.
+                    continue;
+                }
+
+                final CacheEntry entry = loadEntry(component, null, style, variant.callbacks);
+                entry.lastAccess = mClock.incrementAndGet();
+                done++;
+                if (!entry.fromDisk) {
+                    mPrerendered.incrementAndGet();
+                }
+                save(component, entry);
+
+                if (fits) {
+                    synchronized (mVariants) {
+                        // Unless we switched to it, or let it go, meanwhile.
+                        if (mVariants.get(style) == variant
+                                && variant.cache.putIfAbsent(component, entry) == null) {
+                            entry.bytes = sizeOf(entry.icon) + sizeOf(entry.titleBitmap);
+                            variant.bytes += entry.bytes;
+                            mVariantBytes += entry.bytes;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
     }
     
     public void changeDeleteIcon(int nResId){ // R.drawable.kill
@@ -115,123 +342,499 @@ public class IconCache {
      * Remove any records for the supplied ComponentName.
      */
     public void remove(ComponentName componentName) {
-        synchronized (mCache) {
-            mCache.remove(componentName);
+        final CacheEntry entry = mCache.remove(componentName);
+        if (entry != null) {
+            mCacheBytes.addAndGet(-entry.bytes);
+        }
+        synchronized (mVariants) {
+            for (StyleVariant variant : mVariants.values()) {
+                final CacheEntry e = variant.cache.remove(componentName);
+                if (e != null) {
+                    variant.bytes -= e.bytes;
+                    mVariantBytes -= e.bytes;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the records for every component of packageName, including the ones
+     * stored on disk.  Called when the package is installed, updated or removed.
+     */
+    public void removePackage(String packageName) {
+        mGeneration.incrementAndGet();
+        final Iterator<Map.Entry<ComponentName, CacheEntry>> it = mCache.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<ComponentName, CacheEntry> e = it.next();
+            if (packageName.equals(e.getKey().getPackageName())) {
+                it.remove();
+                mCacheBytes.addAndGet(-e.getValue().bytes);
+            }
+        }
+        synchronized (mVariants) {
+            for (StyleVariant variant : mVariants.values()) {
+                final Iterator<Map.Entry<ComponentName, CacheEntry>> vit =
+                        variant.cache.entrySet().iterator();
+                while (vit.hasNext()) {
+                    final Map.Entry<ComponentName, CacheEntry> e = vit.next();
+                    if (packageName.equals(e.getKey().getPackageName())) {
+                        vit.remove();
+                        variant.bytes -= e.getValue().bytes;
+                        mVariantBytes -= e.getValue().bytes;
+                    }
+                }
+            }
         }
+        synchronized (mPackageUpdateTimes) {
+            mPackageUpdateTimes.remove(packageName);
+        }
+        mDiskCache.removePackage(packageName);
     }
 
     /**
      * Empty out the cache.
      */
     public void flush() {
-        synchronized (mCache) {
-            mCache.clear();
+        mGeneration.incrementAndGet();
+        mCache.clear();
+        mCacheBytes.set(0);
+    }
+
+    /**
+     * Empty out the cache and the icons stored on disk, e.g. when the locale changes
+     * and every stored title is stale.
+     */
+    public void flushAll() {
+        flush();
+        synchronized (mVariants) {
+            mVariants.clear();
+            mVariantBytes = 0;
         }
+        synchronized (mPackageUpdateTimes) {
+            mPackageUpdateTimes.clear();
+        }
+        mDiskCache.clear();
     }
 
     /**
      * Fill in "application" with the icon and label for "info."
+     *
+     * Safe to call from several threads at once: a cached entry is read without
+     * locking, and a missing one only waits for loads of components in its stripe.
+     *
+     * info may be null, in which case the package manager is only asked if the entry
+     * has to be rendered rather than read back from disk.
      */
     public void getTitleAndIcon(ApplicationInfo application, ResolveInfo info) {
-        synchronized (mCache) {
-            CacheEntry entry = cacheLocked(application.componentName, info);
-            if (entry.titleBitmap == null) {
-                entry.titleBitmap = mBubble.createTextBitmap(entry.title);
+        final ComponentName componentName = application.componentName;
+        final CacheEntry entry = cacheEntry(componentName, info);
+
+        if (entry.titleBitmap == null) {
+            final Bitmap titleBitmap = createTextBitmap(entry.title);
+            boolean added = false;
+            synchronized (entry) {
+                if (entry.titleBitmap == null) {
+                    entry.titleBitmap = titleBitmap;
+                    entry.needsSave = true;
+                    added = true;
+                }
+            }
+            if (added) {
+                resize(entry);
             }
+        }
+        save(componentName, entry);
+
+        application.title = entry.title;
+        application.titleBitmap = entry.titleBitmap;
+        application.iconBitmap = entry.icon;
+    }
 
-            application.title = entry.title;
-            application.titleBitmap = entry.titleBitmap;
-            application.iconBitmap = entry.icon;
+    private Bitmap createTextBitmap(String title) {
+        // The bubble's paint and metrics are shared.
+        synchronized (mBubble) {
+            return mBubble.createTextBitmap(title);
         }
     }
 
+    /**
+     * On the main thread a miss returns the default icon, and the icon is loaded on
+     * the worker thread; the IconListener hears about it when it's ready.
+     */
     public Bitmap getIcon(Intent intent) {
-        synchronized (mCache) {
-            final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
-            ComponentName component = intent.getComponent();
-
-            if (resolveInfo == null || component == null) {
-                return mDefaultIcon;
+        final ComponentName component = intent.getComponent();
+        if (component == null) {
+            return mDefaultIcon;
+        }
+        if (isMainThread()) {
+            final CacheEntry entry = getCached(component);
+            if (entry != null) {
+                return entry.icon;
             }
-
-            CacheEntry entry = cacheLocked(component, resolveInfo);
-            return entry.icon;
+            loadAsync(component, null);
+            return mDefaultIcon;
         }
+
+        // The package manager is only asked if the entry has to be rendered; an app it
+        // can't resolve gets the default icon.
+        CacheEntry entry = cacheEntry(component, null);
+        save(component, entry);
+        return entry.icon;
     }
 
+    /**
+     * @return true if icon is what getIcon(Intent) returns when it has no icon for the
+     * component (yet).
+     */
+    public boolean isDefaultIcon(Bitmap icon) {
+        return icon == mDefaultIcon;
+    }
+
+    /**
+     * Like above, but a main thread miss returns null, so the caller uses its fallback.
+     */
     public Bitmap getIcon(ComponentName component, ResolveInfo resolveInfo) {
-        synchronized (mCache) {
-            if (resolveInfo == null || component == null) {
+        if (resolveInfo == null || component == null) {
+            return null;
+        }
+
+        CacheEntry entry;
+        if (isMainThread()) {
+            entry = getCached(component);
+            if (entry == null) {
+                loadAsync(component, resolveInfo);
                 return null;
             }
-
-            CacheEntry entry = cacheLocked(component, resolveInfo);
             return entry.icon;
         }
+        entry = cacheEntry(component, resolveInfo);
+        save(component, entry);
+        return entry.icon;
     }
     
+    /**
+     * Return ItemInfo.hashBitmap(icon), without hashing it again if icon is the one
+     * cached for component.
+     */
+    public long getIconHash(ComponentName component, Bitmap icon) {
+        final CacheEntry entry = component != null ? mCache.get(component) : null;
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.icon == icon) {
+                    if (entry.iconHash == 0) {
+                        entry.iconHash = ItemInfo.hashBitmap(icon);
+                    }
+                    return entry.iconHash;
+                }
+            }
+        }
+        return ItemInfo.hashBitmap(icon);
+    }
+
     public Bitmap getIconInEditMode(Intent intent) {
-    	synchronized (mCache) {
-            final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
-            ComponentName component = intent.getComponent();
+        final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
+        ComponentName component = intent.getComponent();
 
-            if (resolveInfo == null || component == null) {
-//            	int random = (int) (Math.random() * (Launcher.mIconBackgroundBitmap.length - 1));
-//                return Launcher.mIconBackgroundBitmap[random];
-            	return null;
+        if (resolveInfo == null || component == null) {
+//        	int random = (int) (Math.random() * (Launcher.mIconBackgroundBitmap.length - 1));
+//            return Launcher.mIconBackgroundBitmap[random];
+        	return null;
+        }
+
+        CacheEntry entry = cacheEntry(component, resolveInfo);
+        return null;//entry.iconInEditMode;
+    }
+    
+//static Bitmap mBg = null;
+
+    /**
+     * Return the cached entry for componentName, loading it if it's missing.  Hits
+     * don't lock; a miss holds the load lock of its stripe while it loads, so two
+     * threads never render the same component.
+     */
+    private CacheEntry cacheEntry(ComponentName componentName, ResolveInfo info) {
+        CacheEntry entry = getCached(componentName);
+        if (entry != null) {
+            return entry;
+        }
+
+        final Object lock = mLoadLocks[(componentName.hashCode() & 0x7fffffff) % LOAD_LOCK_STRIPES];
+        final long waitStart = System.nanoTime();
+        synchronized (lock) {
+            noteLoadLockWait(System.nanoTime() - waitStart);
+
+            // It may have been loaded while we waited.
+            entry = getCached(componentName);
+            if (entry != null) {
+                return entry;
             }
 
-            CacheEntry entry = cacheLocked(component, resolveInfo);
-            return null;//entry.iconInEditMode;
+            final int generation = mGeneration.get();
+            final ThemeStyle style;
+            final Callbacks callbacks;
+            synchronized (mLock) {
+                style = mThemeStyle;
+                callbacks = mCallbacks;
+            }
+            entry = loadEntry(componentName, info, style, callbacks);
+            entry.lastAccess = mClock.incrementAndGet();
+            if (generation != mGeneration.get() || style != mThemeStyle) {
+                // Flushed or restyled while we were loading, hand it out but don't keep it.
+                return entry;
+            }
+            mMisses.incrementAndGet();
+            if (entry.fromDisk) {
+                mDiskHits.incrementAndGet();
+            }
+            mCache.put(componentName, entry);
         }
+        resize(entry);
+        return entry;
     }
-    
-    public void changeSmsShortcutIcon(ComponentName component, Bitmap icon)
-    {
-    	synchronized (mCache) {
-            if (component == null || icon == null) {
-            	//Log.d("QiShang", "IconCache::changeSmsShortcutIcon()==pama error==");
+
+    /**
+     * Load and store the entry for component on the worker thread, then tell the
+     * IconListener.  info may be null.
+     */
+    private void loadAsync(final ComponentName component, final ResolveInfo info) {
+        synchronized (mAsyncLoads) {
+            if (!mAsyncLoads.add(component)) {
                 return;
             }
+        }
+        LauncherModel.runOnWorkerThread(new Runnable() {
+            public void run() {
+                save(component, cacheEntry(component, info));
+                synchronized (mAsyncLoads) {
+                    mAsyncLoads.remove(component);
+                    mAsyncLoaded.add(component);
+                    if (mAsyncLoaded.size() == 1) {
+                        mMainHandler.post(mNotifyLoaded);
+                    }
+                }
+            }
+        });
+    }
 
-            CacheEntry entry = mCache.get(component);
-            if (entry != null) {
-            	entry.icon = icon;
+    private final Runnable mNotifyLoaded = new Runnable() {
+        public void run() {
+            final ArrayList<ComponentName> loaded;
+            synchronized (mAsyncLoads) {
+                loaded = mAsyncLoaded;
+                mAsyncLoaded = new ArrayList<ComponentName>();
+            }
+            final IconListener listener = mIconListener;
+            if (listener != null) {
+                listener.onIconsLoaded(loaded);
+            }
+        }
+    };
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
 
-                mCache.put(component, entry);
+    private CacheEntry getCached(ComponentName componentName) {
+        final CacheEntry entry = mCache.get(componentName);
+        if (entry != null) {
+            entry.lastAccess = mClock.incrementAndGet();
+            mHits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    private void noteLoadLockWait(long nanos) {
+        if (nanos < CONTENDED_WAIT_NANOS) {
+            return;
+        }
+        mContended.incrementAndGet();
+        mContendedNanos.addAndGet(nanos);
+        if (isMainThread()) {
+            mUiContended.incrementAndGet();
+            mUiContendedNanos.addAndGet(nanos);
+        }
+    }
+
+    /**
+     * Read the entry for componentName back from disk, or render it for style with
+     * callbacks.  Does not touch mCache.
+     */
+    private CacheEntry loadEntry(ComponentName componentName, ResolveInfo info, ThemeStyle style,
+            Callbacks callbacks) {
+        final CacheEntry entry = new CacheEntry();
+        entry.style = style;
+
+        final long lastUpdateTime = getPackageUpdateTime(componentName.getPackageName());
+        if (lastUpdateTime > 0 && mDiskCache.load(componentName, style, lastUpdateTime,
+                entry, mBubble.getBitmapWidth(), mBubble.getBitmapHeight())) {
+            entry.fromDisk = true;
+            return entry;
+        }
+        entry.needsSave = lastUpdateTime > 0;
+
+        if (info == null) {
+            info = mPackageManager.resolveActivity(new Intent(Intent.ACTION_MAIN)
+                    .addCategory(Intent.CATEGORY_LAUNCHER).setComponent(componentName), 0);
+            if (info == null) {
+                entry.title = componentName.getClassName();
+                entry.icon = mDefaultIcon;
+                entry.needsSave = false;
+                return entry;
             }
-            //else
-            //{
-            //	Log.d("QiShang", "IconCache::changeSmsShortcutIcon()==entry is null==");
-            //}
         }
+
+        entry.title = info.loadLabel(mPackageManager).toString();
+        if (entry.title == null) {
+            entry.title = info.activityInfo.name;
+        }
+
+        if (callbacks != null) {
+            entry.icon = callbacks.createIconBitmap(componentName, info, mContext, mPackageManager);
+        }
+
+        if(entry.icon == null){
+           	entry.icon = Utilities.createIconBitmap(
+            			info.activityInfo.loadIcon(mPackageManager), mContext);
+        }
+        return entry;
     }
-//static Bitmap mBg = null;
-    private CacheEntry cacheLocked(ComponentName componentName, ResolveInfo info) {
-        CacheEntry entry = mCache.get(componentName);
-        if (entry == null) {
-            entry = new CacheEntry();
 
-            mCache.put(componentName, entry);
+    /**
+     * Recount what entry holds and, if that takes us over budget, evict.
+     */
+    private void resize(CacheEntry entry) {
+        final int delta;
+        synchronized (entry) {
+            final int bytes = sizeOf(entry.icon) + sizeOf(entry.titleBitmap);
+            delta = bytes - entry.bytes;
+            entry.bytes = bytes;
+        }
+        if (mCacheBytes.addAndGet(delta) + mVariantBytes > mMaxCacheBytes) {
+            trimToSize(entry);
+        }
+    }
 
-            entry.title = info.loadLabel(mPackageManager).toString();
-            if (entry.title == null) {
-                entry.title = info.activityInfo.name;
+    /**
+     * Evict the least recently used unpinned entries, other than keep, until we are
+     * back under budget.  One thread evicts at a time; readers are not held up.
+     */
+    private void trimToSize(CacheEntry keep) {
+        synchronized (mEvictLock) {
+            // The styles not in use go first, least recently used first.
+            synchronized (mVariants) {
+                final Iterator<StyleVariant> it = mVariants.values().iterator();
+                while (it.hasNext() && mCacheBytes.get() + mVariantBytes > mMaxCacheBytes) {
+                    final StyleVariant variant = it.next();
+                    variant.cache.clear();
+                    mVariantBytes -= variant.bytes;
+                    variant.bytes = 0;
+                }
             }
-            
-            synchronized (mLock) {
-        		if(mCallbacks != null){
-        			entry.icon = mCallbacks.createIconBitmap(componentName, info, mContext, mPackageManager);
-        		}
+
+            // Recount, so whatever raced with flush() or removePackage() is put right.
+            int total = 0;
+            for (CacheEntry e : mCache.values()) {
+                total += e.bytes;
             }
-            
+            mCacheBytes.set(total);
 
-            if(entry.icon == null){
-	           	entry.icon = Utilities.createIconBitmap(
-	            			info.activityInfo.loadIcon(mPackageManager), mContext);
+            final Set<ComponentName> pinned = mPinned;
+            while (total > mMaxCacheBytes) {
+                ComponentName eldestKey = null;
+                CacheEntry eldest = null;
+                for (Map.Entry<ComponentName, CacheEntry> e : mCache.entrySet()) {
+                    final CacheEntry entry = e.getValue();
+                    if (entry == keep || pinned.contains(e.getKey())) {
+                        continue;
+                    }
+                    if (eldest == null || entry.lastAccess < eldest.lastAccess) {
+                        eldestKey = e.getKey();
+                        eldest = entry;
+                    }
+                }
+                if (eldest == null) {
+                    break;
+                }
+                if (mCache.remove(eldestKey, eldest)) {
+                    total -= eldest.bytes;
+                    mCacheBytes.addAndGet(-eldest.bytes);
+                    mEvictions.incrementAndGet();
+                }
             }
         }
-        return entry;
+    }
+
+    private static int sizeOf(Bitmap b) {
+        return b != null ? b.getByteCount() : 0;
+    }
+
+    /**
+     * Replace the set of components whose icons must stay cached, i.e. the ones
+     * bound to the workspace and the hotseat.
+     */
+    public void setPinnedComponents(Collection<ComponentName> components) {
+        mPinned = new HashSet<ComponentName>(components);
+    }
+
+    public void dumpState(String tag) {
+        Log.d(tag, "mIconCache size=" + mCache.size() + " pinned=" + mPinned.size()
+                + " bytes=" + mCacheBytes.get() + "/" + mMaxCacheBytes);
+        synchronized (mVariants) {
+            Log.d(tag, "mIconCache variants=" + mVariants.keySet() + " bytes=" + mVariantBytes
+                    + " prerendered=" + mPrerendered.get());
+        }
+        Log.d(tag, "mIconCache hits=" + mHits.get() + " misses=" + mMisses.get()
+                + " diskHits=" + mDiskHits.get() + " evictions=" + mEvictions.get());
+        Log.d(tag, "mIconCache contended=" + mContended.get()
+                + " (" + (mContendedNanos.get() / 1000000) + "ms)"
+                + " uiContended=" + mUiContended.get()
+                + " (" + (mUiContendedNanos.get() / 1000000) + "ms)");
+    }
+
+    /**
+     * Store entry if it was rendered here.  Only holds the entry's own lock.  Done on
+     * the worker thread when called on the main thread.
+     */
+    private void save(final ComponentName componentName, final CacheEntry entry) {
+        if (!entry.needsSave) {
+            return;
+        }
+        if (isMainThread()) {
+            LauncherModel.runOnWorkerThread(new Runnable() {
+                public void run() {
+                    save(componentName, entry);
+                }
+            });
+            return;
+        }
+        final long lastUpdateTime = getPackageUpdateTime(componentName.getPackageName());
+        synchronized (entry) {
+            if (!entry.needsSave) {
+                return;
+            }
+            entry.needsSave = false;
+            if (lastUpdateTime > 0) {
+                mDiskCache.save(componentName, entry.style, lastUpdateTime, entry);
+            }
+        }
+    }
+
+    private long getPackageUpdateTime(String packageName) {
+        Long time;
+        synchronized (mPackageUpdateTimes) {
+            time = mPackageUpdateTimes.get(packageName);
+        }
+        if (time == null) {
+            try {
+                time = mPackageManager.getPackageInfo(packageName, 0).lastUpdateTime;
+            } catch (NameNotFoundException e) {
+                time = 0L;
+            }
+            synchronized (mPackageUpdateTimes) {
+                mPackageUpdateTimes.put(packageName, time);
+            }
+        }
+        return time;
     }
     
     public boolean isSystemApp(Intent intent) {
@@ -0,0 +1,208 @@
+package com.android.qshome.model;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+import com.android.qshome.util.ThemeStyle;
+
+/**
+ * Persistent store of the icons, titles and title bitmaps rendered by {@link IconCache}.
+ *
+ * Rows are keyed by component and theme style, and are only valid while the
+ * package's lastUpdateTime matches the one they were rendered for.
+ */
+class IconDiskCache extends SQLiteOpenHelper {
+    private static final String TAG = "Launcher.IconDiskCache";
+
+    private static final String DATABASE_NAME = "app_icons.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_ICONS = "icons";
+
+    private static final String COMPONENT = "componentName";
+    private static final String PACKAGE = "packageName";
+    private static final String STYLE = "themeStyle";
+    private static final String LAST_UPDATED = "lastUpdated";
+    private static final String TITLE = "title";
+    private static final String ICON = "icon";
+    private static final String TITLE_BITMAP = "titleBitmap";
+
+    private static final String[] PROJECTION = new String[] {
+            TITLE, ICON, TITLE_BITMAP };
+
+    IconDiskCache(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ICONS + " (" +
+                COMPONENT + " TEXT NOT NULL," +
+                PACKAGE + " TEXT NOT NULL," +
+                STYLE + " TEXT NOT NULL," +
+                LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0," +
+                TITLE + " TEXT," +
+                ICON + " BLOB," +
+                TITLE_BITMAP + " BLOB," +
+                "PRIMARY KEY (" + COMPONENT + ", " + STYLE + ")" +
+                ");");
+        db.execSQL("CREATE INDEX icons_package ON " + TABLE_ICONS + " (" + PACKAGE + ");");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Everything in here can be rendered again, so just start over.
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ICONS);
+        onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Fill in entry from the stored row for component, if there is one rendered for
+     * this style and package version.
+     *
+     * @return true if entry now holds at least an icon and a title.
+     */
+    boolean load(ComponentName component, ThemeStyle style, long lastUpdateTime,
+            IconCache.CacheEntry entry, int titleWidth, int titleHeight) {
+        Cursor c = null;
+        try {
+            c = getReadableDatabase().query(TABLE_ICONS, PROJECTION,
+                    COMPONENT + "=? AND " + STYLE + "=? AND " + LAST_UPDATED + "=?",
+                    new String[] { component.flattenToString(), style.toString(),
+                            String.valueOf(lastUpdateTime) },
+                    null, null, null);
+            if (!c.moveToFirst()) {
+                return false;
+            }
+
+            final byte[] icon = c.getBlob(1);
+            if (icon == null) {
+                return false;
+            }
+            entry.icon = BitmapFactory.decodeByteArray(icon, 0, icon.length);
+            entry.title = c.getString(0);
+            if (entry.icon == null || entry.title == null) {
+                entry.icon = null;
+                entry.title = null;
+                return false;
+            }
+            entry.titleBitmap = inflateTitleBitmap(c.getBlob(2), titleWidth, titleHeight);
+            return true;
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not load icon for " + component, e);
+            return false;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * @return true if there is a row for component rendered for this style and package
+     * version, without reading it.
+     */
+    boolean contains(ComponentName component, ThemeStyle style, long lastUpdateTime) {
+        try {
+            return DatabaseUtils.longForQuery(getReadableDatabase(),
+                    "SELECT COUNT(*) FROM " + TABLE_ICONS + " WHERE " + COMPONENT + "=? AND "
+                            + STYLE + "=? AND " + LAST_UPDATED + "=?",
+                    new String[] { component.flattenToString(), style.toString(),
+                            String.valueOf(lastUpdateTime) }) > 0;
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not look up icon for " + component, e);
+            return false;
+        }
+    }
+
+    /**
+     * Store what was rendered for component, replacing any previous row for the same style.
+     */
+    void save(ComponentName component, ThemeStyle style, long lastUpdateTime,
+            IconCache.CacheEntry entry) {
+        if (entry.icon == null || entry.title == null) {
+            return;
+        }
+        final byte[] icon = ItemInfo.flattenBitmap(entry.icon);
+        if (icon == null) {
+            return;
+        }
+
+        final ContentValues values = new ContentValues();
+        values.put(COMPONENT, component.flattenToString());
+        values.put(PACKAGE, component.getPackageName());
+        values.put(STYLE, style.toString());
+        values.put(LAST_UPDATED, lastUpdateTime);
+        values.put(TITLE, entry.title);
+        values.put(ICON, icon);
+        if (entry.titleBitmap != null) {
+            values.put(TITLE_BITMAP, flattenTitleBitmap(entry.titleBitmap));
+        }
+
+        try {
+            getWritableDatabase().replace(TABLE_ICONS, null, values);
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not save icon for " + component, e);
+        }
+    }
+
+    /**
+     * Forget every row that belongs to packageName, for all styles.
+     */
+    void removePackage(String packageName) {
+        try {
+            getWritableDatabase().delete(TABLE_ICONS, PACKAGE + "=?",
+                    new String[] { packageName });
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not remove icons for " + packageName, e);
+        }
+    }
+
+    void clear() {
+        try {
+            getWritableDatabase().delete(TABLE_ICONS, null, null);
+        } catch (SQLException e) {
+            Log.w(TAG, "Could not clear icons", e);
+        }
+    }
+
+    /**
+     * Title bitmaps are ALPHA_8, which doesn't survive a PNG round trip, so we keep the
+     * raw pixels.  They are small.
+     */
+    private static byte[] flattenTitleBitmap(Bitmap bitmap) {
+        final ByteBuffer buffer = ByteBuffer.allocate(bitmap.getRowBytes() * bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(buffer);
+        return buffer.array();
+    }
+
+    private static Bitmap inflateTitleBitmap(byte[] data, int width, int height) {
+        if (data == null || width <= 0 || height <= 0) {
+            return null;
+        }
+        final Bitmap b = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        if (data.length != b.getRowBytes() * b.getHeight()) {
+            // The bubble text metrics changed since this was stored.
+            b.recycle();
+            return null;
+        }
+        b.copyPixelsFromBuffer(ByteBuffer.wrap(data));
+        return b;
+    }
+}
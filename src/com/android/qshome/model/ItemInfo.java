@@ -145,8 +145,30 @@ public class ItemInfo {
         if (bitmap != null) {
             byte[] data = flattenBitmap(bitmap);
             values.put(LauncherSettings.Favorites.ICON, data);
+            values.put(LauncherSettings.Favorites.ICON_HASH, hashBitmap(bitmap));
         }
     }
+
+    /**
+     * 64-bit FNV-1a hash of the size and pixels of bitmap.  Two bitmaps with the same
+     * hash are taken to be the same icon.
+     */
+    public static long hashBitmap(Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] row = new int[width];
+
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ width) * 0x100000001b3L;
+        hash = (hash ^ height) * 0x100000001b3L;
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                hash = (hash ^ row[x]) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
     
     public void unbind() {
     }
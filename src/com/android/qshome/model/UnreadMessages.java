@@ -0,0 +1,172 @@
+package com.android.qshome.model;
+
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.Telephony.Mms;
+import android.provider.Telephony.Sms;
+import android.util.Log;
+
+import static com.google.android.mms.pdu.PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND;
+import static com.google.android.mms.pdu.PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF;
+
+/**
+ * Keeps the number of unread SMS/MMS messages, for the messaging app's badge.
+ *
+ * The providers are observed and queried on a thread of our own. A burst of
+ * changes (marking a conversation read touches each of its messages) is
+ * answered with a single query, and the callbacks only hear about a count when
+ * it differs from the last one.
+ */
+public class UnreadMessages {
+    private static final String TAG = "Launcher.UnreadMessages";
+    private static final boolean DEBUG = false;
+
+    public static final ComponentName MESSAGING_COMPONENT = new ComponentName(
+            "com.android.mms", "com.android.mms.ui.ConversationList");
+
+    /** How long to wait for a burst of provider changes to settle before querying. */
+    private static final long QUERY_DELAY = 300;
+
+    private static final String NEW_INCOMING_SM_CONSTRAINT =
+        "(" + Sms.TYPE + " = " + Sms.MESSAGE_TYPE_INBOX
+        + " AND " + Sms.SEEN + " = 0)";
+
+    private static final String NEW_INCOMING_MM_CONSTRAINT =
+        "(" + Mms.MESSAGE_BOX + "=" + Mms.MESSAGE_BOX_INBOX
+        + " AND " + Mms.SEEN + "=0"
+        + " AND (" + Mms.MESSAGE_TYPE + "=" + MESSAGE_TYPE_NOTIFICATION_IND
+        + " OR " + Mms.MESSAGE_TYPE + "=" + MESSAGE_TYPE_RETRIEVE_CONF + "))";
+
+    private static final String[] SMS_STATUS_PROJECTION = new String[] {
+        Sms.THREAD_ID };
+
+    private static final String[] MMS_STATUS_PROJECTION = new String[] {
+        Mms.THREAD_ID };
+
+    public interface Callbacks {
+        /**
+         * Called on the main thread when the count changes.
+         */
+        public void bindUnreadMessages(int count);
+    }
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler();
+    private final HandlerThread mThread;
+    private final Handler mWorker;
+    private final ContentObserver mObserver;
+    private Callbacks mCallbacks;
+
+    // Only touched on mThread.
+    private boolean mQueryPosted;
+    private int mCount = -1;
+
+    public UnreadMessages(Context context) {
+        mContext = context.getApplicationContext();
+
+        mThread = new HandlerThread("launcher-unread", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper());
+        mObserver = new ContentObserver(mWorker) {
+            @Override
+            public void onChange(boolean selfChange) {
+                scheduleQuery();
+            }
+        };
+    }
+
+    /**
+     * Starts observing the providers and queries the current count. Must be
+     * called on the main thread.
+     */
+    public void start(Callbacks callbacks) {
+        mCallbacks = callbacks;
+
+        final ContentResolver resolver = mContext.getContentResolver();
+        resolver.registerContentObserver(Sms.CONTENT_URI, true, mObserver);
+        resolver.registerContentObserver(Mms.CONTENT_URI, true, mObserver);
+        requery();
+    }
+
+    /**
+     * Stops observing and shuts the thread down. Must be called on the main thread.
+     */
+    public void stop() {
+        mCallbacks = null;
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mMainHandler.removeCallbacksAndMessages(null);
+        mThread.quit();
+    }
+
+    /**
+     * Queries the count again. The callbacks are only called if it changed.
+     */
+    public void requery() {
+        mWorker.post(mScheduleQuery);
+    }
+
+    private final Runnable mScheduleQuery = new Runnable() {
+        public void run() {
+            scheduleQuery();
+        }
+    };
+
+    private void scheduleQuery() {
+        if (!mQueryPosted) {
+            mQueryPosted = true;
+            mWorker.postDelayed(mQuery, QUERY_DELAY);
+        }
+    }
+
+    private final Runnable mQuery = new Runnable() {
+        public void run() {
+            mQueryPosted = false;
+
+            final int count = queryUnreadCount();
+            if (count == mCount) {
+                return;
+            }
+            mCount = count;
+
+            if (DEBUG) Log.d(TAG, "unread count changed to " + count);
+            mMainHandler.post(new Runnable() {
+                public void run() {
+                    final Callbacks callbacks = mCallbacks;
+                    if (callbacks != null) {
+                        callbacks.bindUnreadMessages(count);
+                    }
+                }
+            });
+        }
+    };
+
+    private int queryUnreadCount() {
+        final ContentResolver resolver = mContext.getContentResolver();
+        int count = 0;
+        try {
+            Cursor cursor = resolver.query(Sms.CONTENT_URI, SMS_STATUS_PROJECTION,
+                    NEW_INCOMING_SM_CONSTRAINT, null, null);
+            if (cursor != null) {
+                count = cursor.getCount();
+                cursor.close();
+            }
+
+            cursor = resolver.query(Mms.CONTENT_URI, MMS_STATUS_PROJECTION,
+                    NEW_INCOMING_MM_CONSTRAINT, null, null);
+            if (cursor != null) {
+                count += cursor.getCount();
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            // No telephony provider on this device, or we aren't allowed to read it.
+            Log.w(TAG, "Unable to query unread messages", e);
+        }
+        return count;
+    }
+}
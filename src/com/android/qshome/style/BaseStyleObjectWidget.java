@@ -2,6 +2,7 @@ package com.android.qshome.style;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import android.app.Dialog;
 import android.appwidget.AppWidgetManager;
@@ -19,6 +20,7 @@ import android.view.ViewGroup;
 import com.android.qshome.Launcher;
 import com.android.qshome.LauncherAppWidgetHost;
 import com.android.qshome.LauncherModel;
+import com.android.qshome.ctrl.CellLayout;
 import com.android.qshome.ctrl.DragController;
 import com.android.qshome.ctrl.DragLayer;
 import com.android.qshome.ctrl.Folder;
@@ -44,7 +46,7 @@ import com.android.qshome.util.ThemeStyle;
 import com.android.qshome.R;
 
 public abstract class BaseStyleObjectWidget extends BaseStyleObject 
-	implements IBaseStyleInterfaceWidget, LauncherModel.Callbacks {
+	implements IBaseStyleInterfaceWidget, LauncherModel.Callbacks, Workspace.ItemViewFactory {
 	
 	public static final int SCREEN_COUNT = 5;
     public static final int DEFAULT_SCREEN = 2;
@@ -220,6 +222,7 @@ public abstract class BaseStyleObjectWidget extends BaseStyleObject
             // Use removeAllViewsInLayout() to avoid an extra requestLayout() and invalidate().
             ((ViewGroup) workspace.getChildAt(i)).removeAllViewsInLayout();
         }
+        workspace.clearPendingItems();
     }
     
     public boolean isBindItemsFirst(){
@@ -244,32 +247,65 @@ public abstract class BaseStyleObjectWidget extends BaseStyleObject
         for (int i=start; i<end; i++) {
             final ItemInfo item = shortcuts.get(i);
             mDesktopItems.add(item);
-            switch (item.itemType) {
-                case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
-                case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
-                    final View shortcut = getLauncher().createShortcut((ShortcutInfo)item);
-                    workspace.addInScreen(shortcut, item.screen, item.cellX, item.cellY, 1, 1,
-                            false);
-                    break;
-                case LauncherSettings.Favorites.ITEM_TYPE_USER_FOLDER:
-                    final FolderIcon newFolder = FolderIcon.fromXml(R.layout.folder_icon, getLauncher(),
-                            (ViewGroup) workspace.getChildAt(workspace.getCurrentScreen()),
-                            (UserFolderInfo) item);
-                    workspace.addInScreen(newFolder, item.screen, item.cellX, item.cellY, 1, 1,
-                            false);
-                    break;
-                case LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER:
-                    final FolderIcon newLiveFolder = LiveFolderIcon.fromXml(
-                            R.layout.live_folder_icon, getLauncher(),
-                            (ViewGroup) workspace.getChildAt(workspace.getCurrentScreen()),
-                            (LiveFolderInfo) item);
-                    workspace.addInScreen(newLiveFolder, item.screen, item.cellX, item.cellY, 1, 1,
-                            false);
-                    break;
+            if (item instanceof FolderInfo) {
+                mFolders.put(item.id, (FolderInfo) item);
+            }
+            // Screens the user isn't near get their views when they scroll there.
+            if (!workspace.isScreenInReach(item.screen)) {
+                workspace.addPendingItem(item);
+                continue;
+            }
+            final View view = createItemView(item, (CellLayout) workspace.getChildAt(item.screen));
+            if (view != null) {
+                workspace.addInScreen(view, item.screen, item.cellX, item.cellY, 1, 1, false);
             }
         }
+    }
 
-        workspace.requestLayout();
+    public View createItemView(ItemInfo item, CellLayout screen){
+        switch (item.itemType) {
+            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                return getLauncher().createShortcut((ShortcutInfo)item);
+            case LauncherSettings.Favorites.ITEM_TYPE_USER_FOLDER:
+                return FolderIcon.fromXml(R.layout.folder_icon, getLauncher(), screen,
+                        (UserFolderInfo) item);
+            case LauncherSettings.Favorites.ITEM_TYPE_LIVE_FOLDER:
+                return LiveFolderIcon.fromXml(R.layout.live_folder_icon, getLauncher(), screen,
+                        (LiveFolderInfo) item);
+        }
+        return null;
+    }
+
+    public void bindItemsRemoved(ArrayList<ItemInfo> items){
+    	setLoadOnResume();
+
+    	final HashSet<Long> ids = new HashSet<Long>();
+    	final int N = items.size();
+    	for (int i=0; i<N; i++) {
+    		final ItemInfo item = items.get(i);
+    		ids.add(item.id);
+    		mFolders.remove(item.id);
+    	}
+    	for (int i=mDesktopItems.size()-1; i>=0; i--) {
+    		if (ids.contains(mDesktopItems.get(i).id)) {
+    			mDesktopItems.remove(i);
+    		}
+    	}
+    	mWorkspace.removeItemsById(ids);
+    }
+    
+    public void bindFoldersChanged(ArrayList<FolderInfo> folders){
+    	setLoadOnResume();
+
+    	final ArrayList<Folder> openFolders = mWorkspace.getOpenFolders();
+    	final int N = openFolders.size();
+    	for (int i=0; i<N; i++) {
+    		final Folder folder = openFolders.get(i);
+    		if (folders.contains(folder.getInfo())) {
+    			folder.notifyDataSetChanged();
+    		}
+    	}
     }
     
     public void bindFolders(HashMap<Long,FolderInfo> folders){
@@ -298,6 +334,10 @@ public abstract class BaseStyleObjectWidget extends BaseStyleObject
         mDesktopItems.add(item);
     }
     
+    public void finishBindingCurrentScreen(){
+    	getLauncher().dismissHomeLoadingDialog();
+    }
+    
     public void finishBindingItems(){
     	setLoadOnResume();
     	getLauncher().onFinishBindingItems();
@@ -359,6 +399,7 @@ public abstract class BaseStyleObjectWidget extends BaseStyleObject
     	}
     	
     	mLauncher.setWorkspace(mWorkspace);
+    	mWorkspace.setItemViewFactory(this);
     	if(mAllAppsObject != null){
 			mAllAppsObject.onCreate(dragLayer, dragController);
 		}
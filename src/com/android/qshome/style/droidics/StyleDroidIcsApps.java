@@ -45,7 +45,7 @@ import com.android.qshome.util.ThemeStyle;
 
 import com.android.qshome.R;
 
-public class StyleDroidIcsApps extends BaseStyleObjectApps implements IconCache.Callbacks {
+public class StyleDroidIcsApps extends BaseStyleObjectApps {
 	
 	private View mAllAppsLayout;
 	private TextView mTitlebarApps;
@@ -54,17 +54,21 @@ public class StyleDroidIcsApps extends BaseStyleObjectApps implements IconCache.
 		super(context, model, iconCache, callback);
 	}
 	
-	public Bitmap createIconBitmap(ComponentName componentName, ResolveInfo info, Context context, final PackageManager packageManager){
+	// Holds nothing of ours, so the icon cache may keep it to render this style's
+	// icons after we are gone.
+	private static final IconCache.Callbacks ICON_CALLBACKS = new IconCache.Callbacks() {
+		public Bitmap createIconBitmap(ComponentName componentName, ResolveInfo info, Context context, final PackageManager packageManager){
 
-		int nDefId = getDefaultIconRes(componentName.getClassName());
+			int nDefId = getDefaultIconRes(componentName.getClassName());
 
-        if(nDefId > 0){
-        	return Utilities.createIconBitmap(context.getResources().getDrawable(nDefId),  context);
-        }
-		return null;
-	}
+	        if(nDefId > 0){
+	        	return Utilities.createIconBitmap(context.getResources().getDrawable(nDefId),  context);
+	        }
+			return null;
+		}
+	};
 	
-	private int getDefaultIconRes(String pkg)
+	private static int getDefaultIconRes(String pkg)
 	{
 	    if(pkg.equals("com.android.contacts.DialtactsActivity")) // dail
 	    	return R.drawable.zzzz_ics_launcher_phone;
@@ -92,7 +96,7 @@ public class StyleDroidIcsApps extends BaseStyleObjectApps implements IconCache.
 	
 	public void onCreate(DragLayer dragLayer, DragController dragController){
 		//QsLog.LogW("StyleSamsungApps::onCreate(start)===");
-		mIconCache.setCallbacks(this);
+		mIconCache.setCallbacks(ICON_CALLBACKS);
 		
 		ViewStub stub = (ViewStub) dragLayer.findViewById(R.id.stub_all_apps_droidics);
 		mAllAppsLayout = stub.inflate();
@@ -87,13 +87,47 @@ public class LauncherSettings {
 		public static final String ICON_RESOURCE = "iconResource";
 
         /**
-         * The custom icon bitmap, if icon type is ICON_TYPE_BITMAP.
+         * The custom icon bitmap, if icon type is ICON_TYPE_BITMAP.  Only ever written;
+         * the provider stores it in {@link Icons} and it reads back as ICON_HASH.
          * <P>Type: BLOB</P>
          */
 		public static final String ICON = "icon";
+
+        /**
+         * The hash of the icon's pixels, the key of its bitmap in the icons table.  The
+         * provider fills this in and moves the bitmap there when a row is written with
+         * an ICON.
+         * <P>Type: INTEGER</P>
+         */
+		public static final String ICON_HASH = "iconHash";
 		
     }
 
+    /**
+     * Icon bitmaps of the favorites, stored once however many rows show them.
+     */
+	public static final class Icons {
+        /**
+         * The content:// style URL for this table.  Rows are only ever added by the
+         * provider, so there is nothing to be notified about.
+         */
+		public static final Uri CONTENT_URI = Uri.parse("content://" +
+                LauncherProvider.AUTHORITY + "/" + LauncherProvider.TABLE_ICONS +
+                "?" + LauncherProvider.PARAMETER_NOTIFY + "=false");
+
+        /**
+         * {@link BaseLauncherColumns#ICON_HASH} of the rows showing this icon.
+         * <P>Type: INTEGER</P>
+         */
+		public static final String HASH = "hash";
+
+        /**
+         * The icon bitmap, as a PNG.
+         * <P>Type: BLOB</P>
+         */
+		public static final String ICON = "icon";
+	}
+
     /**
      * Favorites.
      */